@@ -0,0 +1,71 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+/**
+ * Sizes batches of lines so that each batch takes about the same, configured
+ * time to annotate. The latency per line is measured from the finished batches
+ * and smoothed with an exponentially weighted moving average. Short tasks keep
+ * all threads busy until the very end of a run, while they are still long
+ * enough that the overhead per task does not matter.
+ *
+ * Thread-safe.
+ */
+public class AdaptiveBatchSizer {
+	private static final double SMOOTHING = 0.2;
+
+	private final long targetNanos;
+	private final int minLines;
+	private final int maxLines;
+	private double nanosPerLine = -1;
+
+	/**
+	 * Creates the sizer
+	 *
+	 * @param targetMillis
+	 *            time one batch should take
+	 * @param minLines
+	 *            minimum amount of lines per batch, also used before anything
+	 *            was measured
+	 * @param maxLines
+	 *            maximum amount of lines per batch
+	 */
+	public AdaptiveBatchSizer(long targetMillis, int minLines, int maxLines) {
+		targetNanos = targetMillis * 1_000_000L;
+		this.minLines = Math.max(1, minLines);
+		this.maxLines = Math.max(this.minLines, maxLines);
+	}
+
+	/**
+	 * Records the time a batch took
+	 *
+	 * @param lines
+	 *            amount of lines of the batch
+	 * @param nanos
+	 *            time in nanoseconds
+	 */
+	public synchronized void record(int lines, long nanos) {
+		if (lines <= 0) {
+			return;
+		}
+		double measured = (double) nanos / lines;
+		nanosPerLine = (nanosPerLine < 0) ? measured : ((1 - SMOOTHING) * nanosPerLine) + (SMOOTHING * measured);
+	}
+
+	/**
+	 * @return amount of lines the next batch should have
+	 */
+	public synchronized int getBatchSize() {
+		if (nanosPerLine <= 0) {
+			return minLines;
+		}
+		long lines = Math.round(targetNanos / nanosPerLine);
+		return (int) Math.max(minLines, Math.min(maxLines, lines));
+	}
+
+	/**
+	 * @return measured average milliseconds per line, or -1 if nothing was
+	 *         measured yet
+	 */
+	public synchronized double getMillisPerLine() {
+		return (nanosPerLine < 0) ? -1 : nanosPerLine / 1_000_000.;
+	}
+}
@@ -12,12 +12,16 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
@@ -34,8 +38,8 @@ import org.kohsuke.args4j.Option;
 import weka.classifiers.Classifier;
 import weka.core.Instance;
 import weka.core.Instances;
-import weka.core.converters.ArffLoader;
 import weka.core.converters.ConverterUtils.DataSource;
+import weka.filters.Filter;
 
 /**
  * Main class of this WSDTrainer.
@@ -47,8 +51,14 @@ import weka.core.converters.ConverterUtils.DataSource;
 public class App {
 	private static final Logger logger = Logger.getLogger(App.class.getName());
 	private static final String SUFFIX_CLASSIFIER = ".classifer";
+	private static final String SUFFIX_BUNDLE = ".bundle";
 	private static final String SUFFIX_FILTER = ".filter";
 	private static final String SUFFIX_INSTANCEHEADER = ".instanceheader";
+	private static final String SUFFIX_FINGERPRINTS = ".fingerprints";
+	private static final String SUFFIX_QUARANTINE = ".quarantine";
+	private static final long BATCH_TARGET_MILLIS = 2000;
+	private static final int BATCH_MIN_LINES = 16;
+	private static final int BATCH_MAX_LINES = 10_000;
 
 	// program arguments
 	@Option(name = "-a", aliases = "--arff", usage = "Save the training data into the provided filename as arff-file(s). Is input arff if -d is set.")
@@ -63,12 +73,63 @@ public class App {
 	private String outputFileName = null;
 	@Option(name = "-o", aliases = "--output", usage = "Output Directory. The resulting file will be named after the classifier or the name specified with -n.", required = true)
 	private String outputDirectory;
-	@Option(name = "-s", aliases = "--split", usage = "Split arff-output into parts, each consisting of the provided amount of articles.")
+	@Option(name = "-s", aliases = "--split", usage = "Split arff-output into parts, each consisting of the provided amount of articles (or the unit set with --split-by). Without it all articles form one part; their lines are annotated in batches as they are read either way.")
 	private int splitValue = -1;
+	@Option(name = "--split-by", usage = "Unit of the split value: articles (default), instances, megabytes (of the uncompressed arff-file) or heap (percentage of the maximum heap that the instances of a shard may take, estimated from their values).")
+	private String splitUnit = "articles";
+	@Option(name = "--lemma-buckets", usage = "Partition the arff-output by the hash of the target lemma into the provided amount of buckets. The arff file name is used as directory then. An existing directory is continued with the same amount of buckets only.")
+	private int lemmaBuckets = 0;
+	@Option(name = "--arff-compression", usage = "Compression of the arff-shards: gzip (default), fast (gzip with the fastest level) or none. Shards are compressed in parallel.")
+	private String arffCompression = "gzip";
+	@Option(name = "--only-lemmas", usage = "Comma separated lemmas; only read their instances from an arff directory with lemma buckets.")
+	private String onlyLemmas = null;
 	@Option(name = "-r", aliases = "--remove-unique", usage = "Remove unique instances before building the classifier.")
 	private boolean removeUnique = false;
+	@Option(name = "--min-sense-count", usage = "Remove senses with less than the provided amount of instances before building the classifier.")
+	private int minSenseCount = 1;
+	@Option(name = "--min-value-count", usage = "Set attribute values that occur less than the provided amount of times to missing before building the classifier.")
+	private int minValueCount = 1;
+	@Option(name = "--top-senses", usage = "Only keep the provided amount of most frequent senses per lemma before building the classifier.")
+	private int topSensesPerLemma = 0;
+	@Option(name = "-p", aliases = "--partition-by-lemma", usage = "Train one model per target lemma in parallel instead of one global model. The model is saved with the serialization of weka as '.bundle' instead of '.classifer', as the ClassifierService cannot load it.")
+	private boolean partitionByLemma = false;
+	@Option(name = "--candidates", usage = "Only score the senses observed together with the lemma of an instance when classifying. Only supported by the count-based model, so this implies -c; the default model scores all senses.")
+	private boolean restrictCandidates = false;
+	@Option(name = "--monosemous-lookup", usage = "Answer lemmas with only one observed sense by a lookup table and exclude them from the model. The model is saved with the serialization of weka as '.bundle' instead of '.classifer', as the ClassifierService cannot load it.")
+	private boolean monosemousLookup = false;
+	@Option(name = "-c", aliases = "--counting-model", usage = "Use the count-based Naive Bayes as model. Needed for incremental updates with -u. Only this model scores the evaluation in reusable blocks; the default model is scored per instance.")
+	private boolean countingModel = false;
+	@Option(name = "--approximate-counts", usage = "Keep the counts of the context attributes of the count-based model in Count-Min sketches with the provided amount of MB. Implies -c. Arff shards (-d or -s) are streamed into the model instead of being read into memory, unless -r, the pruning options, --monosemous-lookup or --only-lemmas need all instances at once. Cannot be combined with -p, as every lemma model would take the full budget.")
+	private int approximateCountsMb = 0;
+	@Option(name = "-u", aliases = "--update-model", usage = "Update the existing model with the provided path (without file suffix) with the input data instead of training a new one.")
+	private String updateModel = null;
+	@Option(name = "--remove-arff", usage = "Arff file(s) of instances that should be removed from the model provided with -u.")
+	private String removeArffFileName = null;
+	@Option(name = "--changed-only", usage = "Only process articles that are new or changed since the last run with this output and update the model provided with -u with them. Fingerprints of the articles are stored next to the output.")
+	private boolean changedOnly = false;
+	@Option(name = "--dedup-sentences", usage = "Skip duplicate sentences before annotating them, a sentence counts as seen once it was annotated. Value is the expected amount of distinct sentences, memory is about 1.2 bytes per sentence.")
+	private long dedupExpectedSentences = 0;
+	@Option(name = "--collapse-duplicates", usage = "Merge instances with the same features into one instance with summed weight before saving and building. Pruning counts a merged instance as often as it was merged.")
+	private boolean collapseDuplicates = false;
+	@Option(name = "--clean-wikitext", usage = "Strip templates, tables, references, html tags and URLs from the input lines before annotating them.")
+	private boolean cleanWikitext = false;
+	@Option(name = "--max-line-length", usage = "Split input lines longer than the provided amount of characters at sentence boundaries.")
+	private int maxLineLength = 0;
+	@Option(name = "--max-line-seconds", usage = "Cancel the annotation of a line after the provided amount of seconds.")
+	private int maxLineSeconds = 0;
+	@Option(name = "--quarantine", usage = "File the lines that were cancelled, failed or could not be split are written to. Default is next to the output.")
+	private String quarantineFileName = null;
+	@Option(name = "--threads", usage = "Thread budgets of the processing stages, e.g. 'annotate=8,train=4,update=4,evaluate=8,write=4,shard=2,io=2,timer=1'. Default is one thread per processor, two for I/O and for writing shards and one timer for --max-line-seconds.")
+	private String threadBudgets = null;
+	@Option(name = "--virtual-io", usage = "Run the I/O stage (reading input files and arff shards) on virtual threads. Needs Java 21 or newer.")
+	private boolean virtualIo = false;
 
 	private Trainer trainer;
+	private SplitPolicy splitPolicy = null;
+	private LemmaBucketLayout bucketLayout = null;
+	private ShardWriter shardWriter = null;
+	private ArticleFingerprintIndex fingerprints = null;
+	private File fingerprintFile = null;
 	private int counter = 0;
 	private int fileCounter = 0;
 
@@ -95,41 +156,73 @@ public class App {
 		processArguments(args);
 		logSetParameters();
 		Classifier classifier = ClassifierMethod.EfficientNaiveBayes.getClassifier();
-		trainer = new EfficientWikiWSDTrainer(classifier);
+		EfficientWikiWSDTrainer dataTrainer = new EfficientWikiWSDTrainer(classifier);
+		dataTrainer.setCollapseDuplicates(collapseDuplicates);
+		if (cleanWikitext) {
+			dataTrainer.setWikitextCleaner(new WikitextCleaner());
+		}
+		if ((maxLineLength > 0) || (maxLineSeconds > 0)) {
+			String quarantine = (quarantineFileName != null) ? quarantineFileName : outputDirectory + outputFileName + App.SUFFIX_QUARANTINE;
+			try {
+				dataTrainer.setLineGuard(new LineGuard(maxLineLength, TimeUnit.SECONDS.toMillis(maxLineSeconds), new File(quarantine)));
+			} catch (IOException e) {
+				e.printStackTrace();
+				App.logger.warning("ERROR: Cannot open quarantine file " + quarantine);
+				System.exit(-4);
+			}
+		}
+		if (dedupExpectedSentences > 0) {
+			dataTrainer.setSentenceDeduplicator(new SentenceDeduplicator(dedupExpectedSentences, 0.01));
+		}
+		trainer = dataTrainer;
+		boolean streamArff = streamArffInput();
 		// get the files and create or read in the training data
 		if (!arffInput) {
 			File directory = new File(input);
-			if (splitValue > 0) {
+			if ((splitValue > 0) || (lemmaBuckets > 0)) {
 				prepareArffSaving();
 			}
 			logger.info("Start processing input files, saving to arff-file(s) if set.");
 			startProcessing(directory);
 
-			if (splitValue > 0) {
+			if ((splitValue > 0) && !streamArff) {
 				Optional<Instances> instances = getInstancesFromArff();
 				if (instances.isPresent()) {
 					trainer = new EfficientWikiWSDTrainer(classifier, instances.get());
 				}
 			}
-		} else {
+		} else if (!streamArff) {
 			Optional<Instances> instances = getInstancesFromArff();
 			if (instances.isPresent()) {
 				trainer = new EfficientWikiWSDTrainer(classifier, instances.get());
 			}
 		}
-		if (!trainer.hasTrainingData()) {
-			logger.info("Error! Trainer has no training data! Stopping!");
-			return;
-		}
 
-		trainer = new EfficientWikiWSDTrainer(trainer.getDataSet());
+		if (streamArff) {
+			trainer = createStreamingTrainer();
+		} else {
+			if (!trainer.hasTrainingData()) {
+				logger.info("Error! Trainer has no training data! Stopping!");
+				return;
+			}
+
+			if (updateModel != null) {
+				updateExistingModel(trainer.getDataSet());
+				return;
+			}
+
+			trainer = createTrainer(trainer.getDataSet());
+		}
 
 		// Build classifier and save it
-		trainer.setRemoveUnique(removeUnique);
 		Instances instancesHeader = new Instances(trainer.getDataSet(), 0);
 		logger.info(trainer.dataSummaryString());
 		logger.info("Starting to filter instances and build the classifier.");
 		trainer.buildClassifier();
+		if (!trainer.isBuild()) {
+			logger.warning("Building the classifier failed, no model is saved.");
+			System.exit(-1);
+		}
 
 		logger.info("Building Classifier finished. Saving it now.");
 		save(trainer, instancesHeader);
@@ -140,6 +233,132 @@ public class App {
 		}
 	}
 
+	/**
+	 * Creates the trainer for building the classifier and applies the set
+	 * parameters to it.
+	 *
+	 * @param instances
+	 *            training instances
+	 * @return the configured trainer
+	 */
+	private EfficientWikiWSDTrainer createTrainer(Instances instances) {
+		Classifier classifier;
+		if (countingModel || restrictCandidates || (approximateCountsMb > 0)) {
+			CountingNaiveBayes countingClassifier = new CountingNaiveBayes(restrictCandidates);
+			countingClassifier.setSketchBudget(approximateCountsMb * 1024L * 1024L);
+			classifier = countingClassifier;
+		} else {
+			classifier = new EfficientNaiveBayes();
+		}
+		EfficientWikiWSDTrainer efficientTrainer = new EfficientWikiWSDTrainer(classifier, instances);
+		efficientTrainer.setRemoveUnique(removeUnique);
+		InstancePruner pruner = new InstancePruner(minSenseCount, minValueCount, topSensesPerLemma, WikiWSDTrainer.INSTANCE_WEIGHT);
+		if (pruner.isActive()) {
+			efficientTrainer.setPruner(pruner);
+		}
+		efficientTrainer.setPartitionByLemma(partitionByLemma);
+		efficientTrainer.setMonosemousLookup(monosemousLookup);
+		efficientTrainer.setCollapseDuplicates(collapseDuplicates);
+		return efficientTrainer;
+	}
+
+	/**
+	 * Returns whether the arff shards are streamed into the count-based model
+	 * instead of reading all instances into memory. Only the approximate counts
+	 * are bounded in memory, so exact counts are still built from the whole
+	 * training set. Options that need all instances at once read them as before.
+	 *
+	 * @return true, if the instances are streamed
+	 */
+	private boolean streamArffInput() {
+		if ((approximateCountsMb <= 0) || (updateModel != null) || (!arffInput && (splitValue <= 0))) {
+			return false;
+		}
+		InstancePruner pruner = new InstancePruner(minSenseCount, minValueCount, topSensesPerLemma, WikiWSDTrainer.INSTANCE_WEIGHT);
+		if (removeUnique || pruner.isActive() || monosemousLookup || (onlyLemmas != null)) {
+			App.logger.warning("Reading all instances into memory, as -r, the pruning options, --monosemous-lookup and --only-lemmas need them at once.");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Creates the trainer that streams the arff shards into the count-based
+	 * model. Its training set is only the header of the shards.
+	 *
+	 * @return the configured trainer
+	 */
+	private EfficientWikiWSDTrainer createStreamingTrainer() {
+		File arff = new File(arffFileName);
+		File[] files = arff.isDirectory() ? arff.listFiles() : new File[] { arff };
+		Arrays.sort(files);
+		Instances structure = null;
+		for (File file : files) {
+			if (DataSource.isArff(file.getAbsolutePath())) {
+				try {
+					structure = new DataSource(file.getAbsolutePath()).getStructure();
+				} catch (Exception e) {
+					errorReadingArff(e);
+				}
+				break;
+			}
+		}
+		if (structure == null) {
+			errorReadingArff(null);
+		}
+		structure.setClassIndex(0);
+		App.logger.info("Streaming the instances of " + arffFileName + " into the model.");
+		EfficientWikiWSDTrainer streamingTrainer = createTrainer(structure);
+		streamingTrainer.setArffDirectory(arffFileName);
+		return streamingTrainer;
+	}
+
+	/**
+	 * Updates the model provided with -u with the new instances, removes the
+	 * instances provided with --remove-arff and saves the updated model.
+	 *
+	 * @param instances
+	 *            new training instances
+	 */
+	private void updateExistingModel(Instances instances) {
+		try {
+			ModelUpdater updater = ModelUpdater.load(updateModel + App.SUFFIX_CLASSIFIER, updateModel + App.SUFFIX_FILTER,
+					updateModel + App.SUFFIX_INSTANCEHEADER);
+			logger.info("Updating model " + updateModel + " with " + instances.size() + " instances.");
+			updater.add(instances);
+			if (removeArffFileName != null) {
+				Optional<Instances> removed = getInstancesFromArff(removeArffFileName);
+				if (removed.isPresent()) {
+					updater.remove(removed.get());
+				}
+			}
+			logger.info("Updating finished. Saving it now.");
+			save(updater.getClassifier(), updater.getEncoder(), updater.getHeader());
+			saveFingerprints();
+		} catch (Exception e) {
+			e.printStackTrace();
+			App.logger.warning("ERROR: Could not update the model " + updateModel);
+			System.exit(-5);
+		}
+	}
+
+	/**
+	 * Saves the fingerprints of the processed articles. Called after the training
+	 * data and the model are saved, so articles of a crashed run are processed
+	 * again by the next run.
+	 */
+	private void saveFingerprints() {
+		if (fingerprints == null) {
+			return;
+		}
+		try {
+			fingerprints.save(fingerprintFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+			App.logger.warning("Could not save the article fingerprints.");
+		}
+	}
+
 	/**
 	 * Argument processing. Sets needed attributes and checks for problems in
 	 * provided arguments or if there were not enough arguments.
@@ -177,7 +396,55 @@ public class App {
 				System.exit(-4);
 			}
 
+			// configure thread budgets
+			if ((threadBudgets != null) || virtualIo) {
+				try {
+					StageScheduler.configure(threadBudgets, virtualIo);
+				} catch (IllegalArgumentException e) {
+					App.logger.warning("ERROR: Invalid thread budgets: " + e.getMessage());
+					System.exit(-4);
+				}
+			}
+
+			// check model that should be updated
+			if ((updateModel != null) && !new File(updateModel + App.SUFFIX_CLASSIFIER).exists()) {
+				App.logger.warning("ERROR: Invalid model to update: " + updateModel + App.SUFFIX_CLASSIFIER + " does not exist!");
+				System.exit(-4);
+			}
+			if (changedOnly && (updateModel == null)) {
+				// a model trained on the changed articles only would replace the full model
+				App.logger.warning("ERROR: --changed-only needs the model to update with -u!");
+				System.exit(-4);
+			}
+			if ((removeArffFileName != null) && !new File(removeArffFileName).exists()) {
+				App.logger.warning("ERROR: Invalid arff file of removed instances: Does not exist!");
+				System.exit(-4);
+			}
+			if ((approximateCountsMb > 0) && partitionByLemma) {
+				// every lemma model would allocate the whole budget
+				App.logger.warning("ERROR: --approximate-counts cannot be combined with -p!");
+				System.exit(-4);
+			}
+
 			// check arff output
+			if (splitValue > 0) {
+				try {
+					splitPolicy = new SplitPolicy(SplitPolicy.parseUnit(splitUnit), splitValue);
+				} catch (IllegalArgumentException e) {
+					App.logger.warning("ERROR: Invalid split: " + e.getMessage());
+					System.exit(-4);
+				}
+			}
+			try {
+				shardWriter = new ShardWriter(ShardWriter.parseCompression(arffCompression));
+			} catch (IllegalArgumentException e) {
+				App.logger.warning("ERROR: Invalid arff compression: " + arffCompression);
+				System.exit(-4);
+			}
+			if ((lemmaBuckets > 0) && (arffFileName == null)) {
+				App.logger.warning("ERROR: Set lemma buckets but no arff file name (as directory)");
+				System.exit(-4);
+			}
 			if ((splitValue > 0) && (arffFileName == null)) {
 				App.logger.warning("ERROR: Set splitValue but no arff file name (as directory)");
 				System.exit(-4);
@@ -219,24 +486,55 @@ public class App {
 	 *             when provided file is not a directory
 	 */
 	// NOTICE: Might be dangerous if a high splitValue is set and files
-	// are big, because there might be problems with heap space.
+	// are big, because there might be problems with heap space. Splitting by
+	// instances, megabytes or heap (--split-by) bounds the size of the shards.
 	private void startProcessing(File dir) throws IllegalArgumentException {
 		if (!dir.isDirectory()) {
 			throw new IllegalArgumentException("Provided File muts be a directory!");
 		}
 
-		TrainingDataVisitor trainingDataVisitor = new TrainingDataVisitor();
+		fingerprintFile = new File(outputDirectory + outputFileName + App.SUFFIX_FINGERPRINTS);
+		if (changedOnly) {
+			try {
+				fingerprints = ArticleFingerprintIndex.load(fingerprintFile);
+			} catch (IOException e) {
+				e.printStackTrace();
+				App.logger.warning("Could not read the article fingerprints, processing all articles.");
+				fingerprints = new ArticleFingerprintIndex();
+			}
+		}
+
+		TrainingDataVisitor trainingDataVisitor = new TrainingDataVisitor(dir.toPath(), fingerprints);
 		try {
 			Files.walkFileTree(dir.toPath(), trainingDataVisitor);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		try {
-			// shutdown and wait until jobs are done and termination is done
-			trainingDataVisitor.executor.shutdown();
-			trainingDataVisitor.executor.awaitTermination(60, TimeUnit.MINUTES);
-		} catch (InterruptedException | SecurityException e) {
-			App.logger.warning(e.toString());
+		trainingDataVisitor.processLargestFirst();
+		// process the remaining files and lines and wait until all jobs are done
+		trainingDataVisitor.finish();
+		awaitCompletion(trainingDataVisitor.annotation);
+		if (trainer instanceof WikiWSDTrainer) {
+			WikitextCleaner cleaner = ((WikiWSDTrainer) trainer).getWikitextCleaner();
+			if (cleaner != null) {
+				App.logger.info(cleaner.summary());
+			}
+			SentenceDeduplicator deduplicator = ((WikiWSDTrainer) trainer).getSentenceDeduplicator();
+			if (deduplicator != null) {
+				App.logger.info(deduplicator.summary());
+			}
+			LineGuard guard = ((WikiWSDTrainer) trainer).getLineGuard();
+			if (guard != null) {
+				App.logger.info(guard.summary());
+				try {
+					guard.close();
+				} catch (IOException e) {
+					App.logger.warning(e.toString());
+				}
+			}
+		}
+		if (fingerprints != null) {
+			App.logger.info(fingerprints.summary());
 		}
 		// finally save the rest.
 		if (splitValue > 0) {
@@ -244,48 +542,189 @@ public class App {
 		} else if (arffFileName != null) {
 			saveTrainingData(false);
 		}
+		awaitShardWrites();
+		if (bucketLayout != null) {
+			saveBucketIndex();
+		}
 	}
 
+	/**
+	 * Waits until all submitted jobs are done. Does not give up after a fixed
+	 * time, as this would silently drop the lines that are still processed;
+	 * progress is logged instead. The time per line can be limited with the
+	 * {@link LineGuard}.
+	 *
+	 * @param group
+	 *            the submitted annotation jobs
+	 */
+	private static void awaitCompletion(StageScheduler.TaskGroup group) {
+		try {
+			while (!group.await(5, TimeUnit.MINUTES)) {
+				App.logger.info("Still waiting for the annotation of the remaining lines to finish.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			App.logger.warning("Interrupted while waiting for the annotation, unfinished lines are lost!");
+		} catch (Exception e) {
+			e.printStackTrace();
+			App.logger.warning("Annotation of a chunk failed, its remaining lines are lost. Use --max-line-length or --max-line-seconds to quarantine failing lines.");
+		}
+	}
+
+	/**
+	 * Scans the input files with their sizes first and processes them largest
+	 * first, so no large file is left over for the end of the run while the
+	 * other threads are idle. The lines are handed to the annotation in batches,
+	 * whose size adapts to the measured annotation time per line; large files are
+	 * thus split into several batches of lines. Files are still read as a whole,
+	 * as their fingerprint and the cleaning of markup that spans several lines
+	 * need all lines of the article in order.
+	 */
 	private class TrainingDataVisitor extends SimpleFileVisitor<Path> {
-		ExecutorService executor = Executors.newWorkStealingPool();
-		private int linesPerWorker = getLinesPerWorker();
+		StageScheduler.TaskGroup annotation = StageScheduler.get().newGroup(StageScheduler.Stage.ANNOTATE);
+		private final AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer(App.BATCH_TARGET_MILLIS, App.BATCH_MIN_LINES,
+				App.BATCH_MAX_LINES);
 		private List<String> lines = new ArrayList<>();
+		private final Path root;
+		private final ArticleFingerprintIndex fingerprints;
+		// scanned input files with their sizes
+		private final List<Path> inputFiles = new ArrayList<>();
+		private long[] inputSizes = new long[1024];
+		// files that are read in the I/O stage, processed in the order they were
+		// submitted
+		private final ArrayDeque<Path> readFiles = new ArrayDeque<>();
+		private final ArrayDeque<Future<List<String>>> readLines = new ArrayDeque<>();
+		private final int readAhead = StageScheduler.get().getThreads(StageScheduler.Stage.IO);
 
-		private int getLinesPerWorker() {
-			int processors = Runtime.getRuntime().availableProcessors();
-			return (int) Math.ceil((double) splitValue / (double) processors);
+		private TrainingDataVisitor(Path root, ArticleFingerprintIndex fingerprints) {
+			this.root = root;
+			this.fingerprints = fingerprints;
+		}
+
+		/**
+		 * Submits full batches of the collected lines for annotation, blocks if the
+		 * annotation stage is busy.
+		 *
+		 * @param all
+		 *            also submit the last, incomplete batch
+		 */
+		private void submitLines(boolean all) {
+			int batchSize = batchSizer.getBatchSize();
+			int from = 0;
+			while (((lines.size() - from) >= batchSize) || (all && (from < lines.size()))) {
+				int to = Math.min(lines.size(), from + batchSize);
+				submitBatch(List.copyOf(lines.subList(from, to)));
+				from = to;
+			}
+			if (from > 0) {
+				lines = new ArrayList<>(lines.subList(from, lines.size()));
+			}
+		}
+
+		private void submitBatch(List<String> batch) {
+			try {
+				annotation.submit(() -> {
+					long start = System.nanoTime();
+					trainer.addTrainingData(batch);
+					batchSizer.record(batch.size(), System.nanoTime() - start);
+				});
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				App.logger.warning("Interrupted while submitting lines, " + batch.size() + " lines are lost!");
+			}
 		}
 
 		@Override
 		public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
 			if (attrs.isRegularFile()) {
-				counter++;
-				try (Stream<String> stream = Files.lines(file)) {
-					lines.addAll(stream.filter(line -> line != null).collect(Collectors.toList()));
-				} catch (IOException e) {
-					App.logger.warning(e.toString());
+				if (inputFiles.size() == inputSizes.length) {
+					inputSizes = Arrays.copyOf(inputSizes, inputSizes.length * 2);
 				}
+				inputSizes[inputFiles.size()] = attrs.size();
+				inputFiles.add(file);
+			}
+			return FileVisitResult.CONTINUE;
+		}
 
-				if ((splitValue > 0) && ((counter % linesPerWorker) == 0)) {
-					List<String> currLines = List.copyOf(lines);
-					executor.execute(() -> trainer.addTrainingData(currLines));
-					lines = new ArrayList<>();
+		/**
+		 * Reads and processes the scanned files, largest first
+		 */
+		private void processLargestFirst() {
+			Integer[] order = new Integer[inputFiles.size()];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			// largest first, ties in the order of the walk
+			Arrays.sort(order, (i1, i2) -> Long.compare(inputSizes[i2], inputSizes[i1]));
+			App.logger.info("Scanned " + order.length + " input files, processing them largest first.");
+			for (int i : order) {
+				Path file = inputFiles.get(i);
+				try {
+					readLines.add(StageScheduler.get().submit(StageScheduler.Stage.IO, () -> App.readLines(file)));
+					readFiles.add(file);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					App.logger.warning("Interrupted while reading " + file);
+					break;
 				}
-
-				if ((splitValue > 0) && (counter >= splitValue)) {
-					try {
-						executor.shutdown();
-						executor.awaitTermination(10, TimeUnit.MINUTES);
-					} catch (InterruptedException e) {
-						App.logger.warning(e.toString());
-						e.printStackTrace();
-					}
-					saveTrainingData(true);
-					counter = 0;
-					executor = Executors.newWorkStealingPool();
+				while (readFiles.size() > readAhead) {
+					processNextFile();
 				}
 			}
-			return FileVisitResult.CONTINUE;
+		}
+
+		/**
+		 * Processes all files that are still read
+		 */
+		private void finish() {
+			while (!readFiles.isEmpty()) {
+				processNextFile();
+			}
+			submitLines(true);
+			App.logger.info("Annotation time per line: " + String.format("%.2f", batchSizer.getMillisPerLine()) + " ms");
+		}
+
+		private void processNextFile() {
+			Path file = readFiles.poll();
+			List<String> articleLines = null;
+			try {
+				articleLines = readLines.poll().get();
+			} catch (ExecutionException e) {
+				// skipping the file would record its fingerprint as empty, so later
+				// runs would skip it as well
+				e.getCause().printStackTrace();
+				App.logger.warning("ERROR: Could not read input file " + file + ". Aborting!");
+				System.exit(-42);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				App.logger.warning("ERROR: Interrupted while reading " + file + ". Aborting!");
+				System.exit(-42);
+			}
+			// skip articles that did not change since the last run
+			if ((fingerprints != null) && !fingerprints.update(root.relativize(file).toString(), articleLines)) {
+				return;
+			}
+			counter++;
+			if (trainer instanceof WikiWSDTrainer) {
+				// in order, as markup can span several lines
+				articleLines = ((WikiWSDTrainer) trainer).cleanArticle(articleLines);
+			}
+			lines.addAll(articleLines);
+			submitLines(false);
+
+			if ((splitPolicy != null) && splitPolicy.isReached(counter, trainer)) {
+				submitLines(true);
+				awaitCompletion(annotation);
+				saveTrainingData(true);
+				counter = 0;
+				annotation = StageScheduler.get().newGroup(StageScheduler.Stage.ANNOTATE);
+			}
+		}
+	}
+
+	private static List<String> readLines(Path file) throws IOException {
+		try (Stream<String> stream = Files.lines(file)) {
+			return stream.filter(line -> line != null).collect(Collectors.toList());
 		}
 	}
 
@@ -296,7 +735,7 @@ public class App {
 		infoBuilder.append("\n Output File Name:\t\t").append(outputFileName);
 
 		if (splitValue > 0) {
-			infoBuilder.append("\n Splitting at:\t\t\t").append(splitValue);
+			infoBuilder.append("\n Splitting at:\t\t\t").append(splitValue).append(' ').append(splitUnit);
 		}
 		if (arffInput) {
 			infoBuilder.append("\n Arff File:\t\t\t").append(arffFileName);
@@ -313,6 +752,63 @@ public class App {
 		if (removeUnique) {
 			infoBuilder.append("\n Unique Instances will be removed");
 		}
+		if (minSenseCount > 1) {
+			infoBuilder.append("\n Min Sense Count:\t\t").append(minSenseCount);
+		}
+		if (minValueCount > 1) {
+			infoBuilder.append("\n Min Value Count:\t\t").append(minValueCount);
+		}
+		if (topSensesPerLemma > 0) {
+			infoBuilder.append("\n Top Senses per Lemma:\t\t").append(topSensesPerLemma);
+		}
+		if (partitionByLemma) {
+			infoBuilder.append("\n One model per lemma will be trained");
+		}
+		if (restrictCandidates) {
+			infoBuilder.append("\n Classification is restricted to candidate senses of the lemma (count-based model)");
+		}
+		if (monosemousLookup) {
+			infoBuilder.append("\n Monosemous lemmas will be looked up");
+		}
+		if (dedupExpectedSentences > 0) {
+			infoBuilder.append("\n Deduplicating Sentences:\t").append(dedupExpectedSentences);
+		}
+		if (lemmaBuckets > 0) {
+			infoBuilder.append("\n Lemma Buckets:\t\t\t").append(lemmaBuckets);
+		}
+		if (onlyLemmas != null) {
+			infoBuilder.append("\n Only Lemmas:\t\t\t").append(onlyLemmas);
+		}
+		if (virtualIo) {
+			infoBuilder.append("\n Using virtual threads for I/O");
+		}
+		if (maxLineLength > 0) {
+			infoBuilder.append("\n Max Line Length:\t\t").append(maxLineLength);
+		}
+		if (maxLineSeconds > 0) {
+			infoBuilder.append("\n Max Seconds per Line:\t\t").append(maxLineSeconds);
+		}
+		if (cleanWikitext) {
+			infoBuilder.append("\n Wikitext markup will be stripped");
+		}
+		if (collapseDuplicates) {
+			infoBuilder.append("\n Duplicate instances will be collapsed");
+		}
+		if (changedOnly) {
+			infoBuilder.append("\n Only processing new or changed articles");
+		}
+		if (countingModel) {
+			infoBuilder.append("\n Using the count-based Naive Bayes");
+		}
+		if (approximateCountsMb > 0) {
+			infoBuilder.append("\n Approximate Counts (MB):\t").append(approximateCountsMb);
+		}
+		if (updateModel != null) {
+			infoBuilder.append("\n Updating Model:\t\t").append(updateModel);
+			if (removeArffFileName != null) {
+				infoBuilder.append("\n Removing Instances of:\t\t").append(removeArffFileName);
+			}
+		}
 		App.logger.info(infoBuilder.toString());
 
 	}
@@ -320,10 +816,13 @@ public class App {
 	private void prepareArffSaving() {
 		// prepare saving of training data
 		File file = new File(arffFileName);
-		if (splitValue > 0) {
+		if ((splitValue > 0) || (lemmaBuckets > 0)) {
 			if (!file.exists() || !file.isDirectory()) {
 				file.mkdirs();
 			}
+			if (lemmaBuckets > 0) {
+				bucketLayout = createBucketLayout(file);
+			}
 		} else {
 			if ((file.getParentFile() != null) && !file.getParentFile().exists()) {
 				// create directories if they are absent
@@ -332,6 +831,40 @@ public class App {
 		}
 	}
 
+	/**
+	 * Creates the lemma bucket layout of the arff directory. An existing layout
+	 * with the same amount of buckets is continued after its last shard. Exits
+	 * if the directory contains shards of another layout, as they would be mixed
+	 * up with the new buckets.
+	 *
+	 * @param directory
+	 *            the arff directory
+	 * @return the layout
+	 */
+	private LemmaBucketLayout createBucketLayout(File directory) {
+		LemmaBucketLayout layout = null;
+		if (LemmaBucketLayout.exists(directory)) {
+			try {
+				layout = LemmaBucketLayout.load(directory);
+			} catch (IOException | NumberFormatException e) {
+				App.logger.warning("Could not read the existing lemma bucket index: " + e.toString());
+			}
+		}
+		int highestCounter = LemmaBucketLayout.highestShardCounter(directory);
+		if ((layout != null) && (layout.getNumBuckets() == lemmaBuckets)) {
+			// continue after the existing shards
+			fileCounter = Math.max(fileCounter, highestCounter);
+			return layout;
+		}
+		if ((layout != null) || (highestCounter >= 0)) {
+			App.logger.warning("The arff directory " + directory + " already contains lemma bucket shards "
+					+ ((layout != null) ? "of " + layout.getNumBuckets() + " buckets" : "without a valid index")
+					+ ". Use another directory or the same amount of buckets.");
+			System.exit(-4);
+		}
+		return new LemmaBucketLayout(directory, lemmaBuckets);
+	}
+
 	/**
 	 * Saves the training data. If the boolean is set, then also resets the trainer
 	 *
@@ -339,43 +872,113 @@ public class App {
 	 *            Reset the trainer if set
 	 */
 	private synchronized void saveTrainingData(boolean resetTrainer) {
-		fileCounter++;
 		// only save to file if there actually is training data
+		checkShardWrites();
 		if (trainer.hasTrainingData()) {
-			String filename = arffFileName;
-			if (splitValue > 0) {
-				String extension = getArffExtension();
-				filename += File.separator + fileCounter + extension;
-			}
-			App.logger.info("Trying to save training data to file " + filename);
-			try {
-				trainer.saveTrainingData(filename);
-			} catch (RandomNullPointerException e) {
-				// should not occur anymore, still keep it, in case it somehow
-				// occurs again
-				e.printStackTrace();
-				App.logger.warning("Caught a NullPointerException while trying to save the training data.");
-				// Remove the created file
-				File f = new File(filename);
-				if (f.exists()) {
-					f.delete();
+			if (bucketLayout != null) {
+				// the index may only list shards that are written completely, so
+				// wait for the shards of the previous split (usually done long ago)
+				awaitShardWrites();
+				saveBucketIndex();
+				// one shard per bucket
+				fileCounter++;
+				trainer.collapseTrainingData();
+				Instances data = trainer.getDataSet();
+				int[] offsets = bucketLayout.partition(data);
+				for (int b = 0; b < bucketLayout.getNumBuckets(); b++) {
+					if (offsets[b] < offsets[b + 1]) {
+						saveShard(bucketLayout.shardFile(b, fileCounter, getArffExtension()).getPath(), offsets[b], offsets[b + 1]);
+						bucketLayout.record(data, offsets[b], offsets[b + 1]);
+					}
+				}
+			} else if (splitPolicy != null) {
+				// cut the data into shards that fit the limit
+				trainer.collapseTrainingData();
+				for (int[] range : splitPolicy.shardRanges(trainer)) {
+					fileCounter++;
+					saveShard(arffFileName + File.separator + fileCounter + getArffExtension(), range[0], range[1]);
 				}
-				long processed = (fileCounter - 1) * splitValue;
-				App.logger.warning(
-						"Aborting and exiting now. The last filecounter is " + (fileCounter - 1) + ". Try starting with -f " + processed);
-				System.exit(-1337);
+			} else {
+				fileCounter++;
+				trainer.collapseTrainingData();
+				saveShard(arffFileName, 0, trainer.getNumInstances());
 			}
 		} else {
+			fileCounter++;
 			App.logger.info("Skip saving to file once as there is no training data.");
 		}
 		// reset trainer if wished
 		if (resetTrainer) {
 			trainer.resetInstancesAndFilter();
+			if (splitPolicy != null) {
+				splitPolicy.reset();
+			}
+		}
+	}
+
+	/**
+	 * Writes a range of the training data in the background. The instances are
+	 * handed over without a copy: the trainer gets a new training set when it is
+	 * reset and the last shards are awaited before the training data is used
+	 * again.
+	 */
+	private void saveShard(String filename, int from, int to) {
+		App.logger.info("Saving training data to file " + filename + " in the background.");
+		try {
+			shardWriter.submit(trainer.getDataSet(), from, to, new File(filename));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			App.logger.warning("Interrupted while saving the training data to " + filename);
+		}
+	}
+
+	/**
+	 * Exits if writing one of the shards, that are done so far, failed. Does not
+	 * wait for the other shards.
+	 */
+	private void checkShardWrites() {
+		try {
+			shardWriter.checkFailures();
+		} catch (Exception e) {
+			abortShardWrites(e);
 		}
 	}
 
+	/**
+	 * Waits until all shards are written, exits if writing a shard failed.
+	 */
+	private void awaitShardWrites() {
+		try {
+			shardWriter.awaitAll();
+		} catch (Exception e) {
+			abortShardWrites(e);
+		}
+	}
+
+	private void saveBucketIndex() {
+		try {
+			bucketLayout.saveIndex();
+		} catch (IOException e) {
+			e.printStackTrace();
+			App.logger.warning("Could not save the lemma bucket index.");
+		}
+	}
+
+	private void abortShardWrites(Exception e) {
+		e.printStackTrace();
+		StringBuilder message = new StringBuilder("Could not save the training data. Aborting and exiting now. The last filecounter is ")
+				.append(fileCounter - 1).append('.');
+		// the amount of processed articles is only known, if every shard holds the
+		// same amount of articles
+		if ((bucketLayout == null) && (splitPolicy != null) && (splitPolicy.getUnit() == SplitPolicy.Unit.ARTICLES)) {
+			message.append(" Try starting with -f ").append((fileCounter - 1) * splitValue);
+		}
+		App.logger.warning(message.toString());
+		System.exit(-1337);
+	}
+
 	private String getArffExtension() {
-		return ArffLoader.FILE_EXTENSION_COMPRESSED;
+		return shardWriter.getExtension();
 	}
 
 	/**
@@ -410,7 +1013,7 @@ public class App {
 
 		if (unseen) {
 			// build classifier
-			trainer = new EfficientWikiWSDTrainer(trainInstances);
+			trainer = createTrainer(trainInstances);
 			trainer.buildClassifier();
 		}
 		ClassifierService classService = new ClassifierService(trainer.getClassifier(), trainer.getFilter());
@@ -419,29 +1022,29 @@ public class App {
 		AtomicInteger correct = new AtomicInteger();
 		App.logger.info("Start evaluating");
 		Instant start = Instant.now();
-		ExecutorService executor = Executors.newWorkStealingPool();
+		StageScheduler.TaskGroup group = StageScheduler.get().newGroup(StageScheduler.Stage.EVALUATE);
 		int i = 0;
-		int outputLimit = limit / 20;
-		for (Instance instance : testInstances) {
-			int index = i++;
-			executor.execute(() -> {
-				String orig = instance.classAttribute().value((int) instance.classValue());
-				// String lemma = instance.stringValue(instance.attribute(1));
-				// String cls = classService.classifyInstanceWithLemma(instance, lemma).getClassificationString();
-				String cls = classService.classifyInstance(instance).getClassificationString();
-				if (cls.equals(orig)) {
-					correct.incrementAndGet();
-				}
-				if ((index % outputLimit) == 0) {
-					App.logger.info(String.format("Evaluation at %d%%", (index / outputLimit) * 5));
-				}
-			});
-		}
-		executor.shutdown();
+		int outputLimit = Math.max(1, limit / 20);
 		try {
-			executor.awaitTermination(1, TimeUnit.DAYS);
-		} catch (InterruptedException e) {
+			for (Instance instance : testInstances) {
+				int index = i++;
+				group.submit(() -> {
+					String orig = instance.classAttribute().value((int) instance.classValue());
+					// String lemma = instance.stringValue(instance.attribute(1));
+					// String cls = classService.classifyInstanceWithLemma(instance, lemma).getClassificationString();
+					String cls = classService.classifyInstance(instance).getClassificationString();
+					if (cls.equals(orig)) {
+						correct.incrementAndGet();
+					}
+					if ((index % outputLimit) == 0) {
+						App.logger.info(String.format("Evaluation at %d%%", (index / outputLimit) * 5));
+					}
+				});
+			}
+			group.await();
+		} catch (Exception e) {
 			e.printStackTrace();
+			App.logger.warning("Evaluation failed, the result is incomplete.");
 		}
 		double res = (double) correct.get() / (double) limit;
 		Instant end = Instant.now();
@@ -455,20 +1058,47 @@ public class App {
 	 * @return Optional of instances; might be not set
 	 */
 	private Optional<Instances> getInstancesFromArff() {
+		return getInstancesFromArff(arffFileName);
+	}
+
+	/**
+	 * Gets the instances from the provided arff file or directory of arff files
+	 *
+	 * @param arffPath
+	 *            arff file or directory
+	 * @return Optional of instances; might be not set
+	 */
+	private Optional<Instances> getInstancesFromArff(String arffPath) {
 		App.logger.info("Starting to get instances from arff file(s).");
 		Instances data = null;
-		File dir = new File(arffFileName);
+		File dir = new File(arffPath);
 		if (dir.isFile()) {
 			// only one file
 			try {
-				DataSource source = new DataSource(arffFileName);
+				DataSource source = new DataSource(arffPath);
 				data = source.getDataSet();
 			} catch (Exception e) {
 				errorReadingArff(e);
 			}
 		} else if (dir.isDirectory()) {
 			// directory
-			for (File file : dir.listFiles()) {
+			List<File> files = Arrays.asList(dir.listFiles());
+			Set<String> lemmas = null;
+			if ((onlyLemmas != null) && LemmaBucketLayout.exists(dir)) {
+				lemmas = new HashSet<>();
+				for (String lemma : onlyLemmas.split(",")) {
+					if (!lemma.isBlank()) {
+						lemmas.add(lemma.trim());
+					}
+				}
+				try {
+					files = LemmaBucketLayout.load(dir).shardsFor(lemmas);
+					App.logger.info("Reading " + files.size() + " shards of the lemma buckets of " + lemmas);
+				} catch (IOException | NumberFormatException e) {
+					App.logger.warning("Could not read the lemma bucket index, reading all shards: " + e.toString());
+				}
+			}
+			for (File file : files) {
 				if (!DataSource.isArff(file.getAbsolutePath())) {
 					continue;
 				}
@@ -484,6 +1114,9 @@ public class App {
 					errorReadingArff(e);
 				}
 			}
+			if ((lemmas != null) && (data != null)) {
+				LemmaBucketLayout.retainLemmas(data, lemmas);
+			}
 		} else {
 			errorReadingArff(null);
 		}
@@ -507,11 +1140,46 @@ public class App {
 	 * Save the classifier
 	 */
 	private void save(Trainer trainer, Instances instancesHeader) {
+		save(trainer.getClassifier(), trainer.getFilter(), instancesHeader);
+	}
+
+	/**
+	 * Save the classifier along with its filter and the instances header. The
+	 * EfficientNaiveBayes is saved for the ClassifierService, all other models
+	 * with the serialization of weka, so they can be updated with -u (see
+	 * {@link ModelUpdater#load(String, String, String)}). Model bundles get their
+	 * own suffix, so the loader of the ClassifierService does not pick them up.
+	 */
+	private void save(Classifier classifier, Filter filter, Instances instancesHeader) {
 		outputFileName = outputDirectory + outputFileName;
-		SerializationHelper.serializeEfficientNaiveBayesClassifier((EfficientNaiveBayes) trainer.getClassifier(),
-				outputFileName + App.SUFFIX_CLASSIFIER);
-		SerializationHelper.serializeFilter(trainer.getFilter(), outputFileName + App.SUFFIX_FILTER);
-		Instances header = new Instances(instancesHeader, 0);
-		SerializationHelper.serializeInstances(header, outputFileName + App.SUFFIX_INSTANCEHEADER);
+		if (classifier instanceof EfficientNaiveBayes) {
+			SerializationHelper.serializeEfficientNaiveBayesClassifier((EfficientNaiveBayes) classifier, outputFileName + App.SUFFIX_CLASSIFIER);
+			Filter savedFilter = filter;
+			if (filter instanceof DictionaryEncoder) {
+				// the ClassifierService does not have the trainer on its classpath
+				try {
+					savedFilter = ((DictionaryEncoder) filter).toStringToNominal();
+				} catch (Exception e) {
+					e.printStackTrace();
+					App.logger.warning("Could not convert the dictionaries, the filter is not saved.");
+					return;
+				}
+			}
+			SerializationHelper.serializeFilter(savedFilter, outputFileName + App.SUFFIX_FILTER);
+			Instances header = new Instances(instancesHeader, 0);
+			SerializationHelper.serializeInstances(header, outputFileName + App.SUFFIX_INSTANCEHEADER);
+			return;
+		}
+		// counting models and model bundles are written with the serialization of
+		// weka, the loader of the ClassifierService cannot read them
+		boolean bundle = (classifier instanceof LemmaPartitionedClassifier) || (classifier instanceof MonosemousLemmaClassifier);
+		String classifierFile = outputFileName + (bundle ? App.SUFFIX_BUNDLE : App.SUFFIX_CLASSIFIER);
+		try {
+			ModelUpdater.save(classifier, filter, instancesHeader, classifierFile, outputFileName + App.SUFFIX_FILTER,
+					outputFileName + App.SUFFIX_INSTANCEHEADER);
+		} catch (Exception e) {
+			e.printStackTrace();
+			App.logger.warning("Could not save the classifier.");
+		}
 	}
 }
@@ -0,0 +1,175 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Fingerprints of the content of articles, keyed by the hash of the article
+ * title. The fingerprints of the previous run are loaded from a file, the ones
+ * of the current run are collected while processing and saved afterwards. This
+ * way only articles that are new or changed since the previous run have to be
+ * processed.
+ *
+ * The file is a binary file with the amount of entries followed by the
+ * (title hash, content hash) pairs sorted by title hash. The previous
+ * fingerprints are kept in two sorted <code>long</code> arrays and looked up
+ * by binary search.
+ *
+ * Not thread-safe.
+ */
+public class ArticleFingerprintIndex {
+	private static final Logger logger = Logger.getLogger(ArticleFingerprintIndex.class.getName());
+
+	private final long[] previousTitles;
+	private final long[] previousContents;
+
+	private long[] titles = new long[1024];
+	private long[] contents = new long[1024];
+	private int size = 0;
+
+	private int unchanged = 0;
+	private int changed = 0;
+	private int added = 0;
+
+	/**
+	 * Creates an index without previous fingerprints, every article is new
+	 */
+	public ArticleFingerprintIndex() {
+		this(new long[0], new long[0]);
+	}
+
+	private ArticleFingerprintIndex(long[] previousTitles, long[] previousContents) {
+		this.previousTitles = previousTitles;
+		this.previousContents = previousContents;
+	}
+
+	/**
+	 * Loads the fingerprints of the previous run. If the file does not exist,
+	 * an empty index is returned.
+	 *
+	 * @param file
+	 *            fingerprint file
+	 * @return the index
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static ArticleFingerprintIndex load(File file) throws IOException {
+		if (!file.isFile()) {
+			ArticleFingerprintIndex.logger.info("No previous fingerprints found at " + file + ", processing all articles.");
+			return new ArticleFingerprintIndex();
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			int entries = in.readInt();
+			long[] titles = new long[entries];
+			long[] contents = new long[entries];
+			for (int i = 0; i < entries; i++) {
+				titles[i] = in.readLong();
+				contents[i] = in.readLong();
+			}
+			ArticleFingerprintIndex.logger.info("Loaded " + entries + " article fingerprints from " + file);
+			return new ArticleFingerprintIndex(titles, contents);
+		}
+	}
+
+	/**
+	 * Records the fingerprint of the article and checks whether it changed
+	 * since the previous run.
+	 *
+	 * @param title
+	 *            title (or other unique name) of the article
+	 * @param lines
+	 *            content of the article
+	 * @return <code>true</code>, if the article is new or its content changed
+	 */
+	public boolean update(String title, List<String> lines) {
+		Hash64 contentHash = new Hash64();
+		for (String line : lines) {
+			contentHash.add(line).add('\n');
+		}
+		return update(Hash64.hash(title), contentHash.get());
+	}
+
+	/**
+	 * Records the fingerprint of the article and checks whether it changed
+	 * since the previous run.
+	 *
+	 * @param titleHash
+	 *            hash of the title of the article
+	 * @param contentHash
+	 *            hash of the content of the article
+	 * @return <code>true</code>, if the article is new or its content changed
+	 */
+	public boolean update(long titleHash, long contentHash) {
+		if (size == titles.length) {
+			titles = Arrays.copyOf(titles, size * 2);
+			contents = Arrays.copyOf(contents, size * 2);
+		}
+		titles[size] = titleHash;
+		contents[size] = contentHash;
+		size++;
+
+		int previous = Arrays.binarySearch(previousTitles, titleHash);
+		if (previous < 0) {
+			added++;
+			return true;
+		}
+		if (previousContents[previous] != contentHash) {
+			changed++;
+			return true;
+		}
+		unchanged++;
+		return false;
+	}
+
+	/**
+	 * Saves the fingerprints recorded in this run
+	 *
+	 * @param file
+	 *            fingerprint file
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void save(File file) throws IOException {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(titles[a], titles[b]));
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(size);
+			for (int i : order) {
+				out.writeLong(titles[i]);
+				out.writeLong(contents[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return summary of the changes in comparison to the previous run
+	 */
+	public String summary() {
+		int removed = previousTitles.length - changed - unchanged;
+		return "Articles: " + added + " new, " + changed + " changed, " + unchanged + " unchanged (skipped), " + removed + " removed.";
+	}
+
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	public int getChanged() {
+		return changed;
+	}
+
+	public int getAdded() {
+		return added;
+	}
+}
@@ -0,0 +1,130 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.UnaryOperator;
+
+import edu.kit.ipd.pronat.wiki_wsd.classifier.EfficientNaiveBayes;
+import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.core.Instance;
+
+/**
+ * Updates a classifier with many instances. The instances are split into one
+ * large chunk per thread. For a {@link CountingNaiveBayes}, each chunk is
+ * counted into a private {@link NaiveBayesCounts} table and the tables are
+ * reduced into the classifier in chunk order afterwards, so the result does not
+ * depend on the scheduling. Approximate counts allocate their full budget for
+ * every table, so for them the chunks are only converted in parallel and
+ * counted into the classifier directly. The {@link EfficientNaiveBayes} does not offer a
+ * way to merge partial models, but can be updated concurrently (as the trainer
+ * always did), so each chunk updates it directly on its own thread. Other
+ * updateable classifiers are not known to be thread-safe; they are updated in
+ * order on the calling thread.
+ */
+public class ChunkedUpdater {
+	private final int parallelism;
+
+	/**
+	 * Creates the updater with one chunk per thread of the
+	 * {@link StageScheduler.Stage#UPDATE} stage
+	 */
+	public ChunkedUpdater() {
+		this(StageScheduler.get().getThreads(StageScheduler.Stage.UPDATE));
+	}
+
+	/**
+	 * Creates the updater
+	 *
+	 * @param parallelism
+	 *            amount of chunks
+	 */
+	public ChunkedUpdater(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Updates the classifier with the instances.
+	 *
+	 * @param classifier
+	 *            updateable classifier
+	 * @param instances
+	 *            instances for the update
+	 * @param converter
+	 *            applied to each instance before the update, e.g. to encode it.
+	 *            Might be <code>null</code>
+	 * @throws Exception
+	 *             if the classifier cannot be updated
+	 */
+	public void update(Classifier classifier, List<Instance> instances, UnaryOperator<Instance> converter) throws Exception {
+		if (!(classifier instanceof UpdateableClassifier)) {
+			throw new IllegalArgumentException("Classifier is not updateable!");
+		}
+		UnaryOperator<Instance> convert = (converter != null) ? converter : UnaryOperator.identity();
+		UpdateableClassifier updateable = (UpdateableClassifier) classifier;
+		if ((parallelism == 1) || (instances.size() < parallelism)
+				|| !((classifier instanceof CountingNaiveBayes) || (classifier instanceof EfficientNaiveBayes))) {
+			for (Instance instance : instances) {
+				updateable.updateClassifier(convert.apply(instance));
+			}
+			return;
+		}
+
+		if (classifier instanceof EfficientNaiveBayes) {
+			List<Callable<Void>> tasks = new ArrayList<>(parallelism);
+			for (List<Instance> chunk : chunks(instances)) {
+				tasks.add(() -> {
+					for (Instance instance : chunk) {
+						updateable.updateClassifier(convert.apply(instance));
+					}
+					return null;
+				});
+			}
+			StageScheduler.get().invokeAll(StageScheduler.Stage.UPDATE, tasks);
+			return;
+		}
+
+		CountingNaiveBayes countingClassifier = (CountingNaiveBayes) classifier;
+		NaiveBayesCounts template = countingClassifier.getCounts();
+		if (template.isApproximate()) {
+			List<Callable<Void>> tasks = new ArrayList<>(parallelism);
+			for (List<Instance> chunk : chunks(instances)) {
+				tasks.add(() -> {
+					List<Instance> converted = new ArrayList<>(chunk.size());
+					for (Instance instance : chunk) {
+						converted.add(convert.apply(instance));
+					}
+					countingClassifier.addInstances(converted);
+					return null;
+				});
+			}
+			StageScheduler.get().invokeAll(StageScheduler.Stage.UPDATE, tasks);
+			return;
+		}
+
+		List<Callable<NaiveBayesCounts>> tasks = new ArrayList<>(parallelism);
+		for (List<Instance> chunk : chunks(instances)) {
+			tasks.add(() -> {
+				NaiveBayesCounts partial = template.emptyCopy();
+				for (Instance instance : chunk) {
+					partial.add(convert.apply(instance));
+				}
+				return partial;
+			});
+		}
+		// reduce in chunk order
+		for (NaiveBayesCounts partial : StageScheduler.get().invokeAll(StageScheduler.Stage.UPDATE, tasks)) {
+			countingClassifier.addCounts(partial);
+		}
+	}
+
+	private List<List<Instance>> chunks(List<Instance> instances) {
+		int chunkSize = (instances.size() + parallelism - 1) / parallelism;
+		List<List<Instance>> chunks = new ArrayList<>(parallelism);
+		for (int from = 0; from < instances.size(); from += chunkSize) {
+			chunks.add(instances.subList(from, Math.min(instances.size(), from + chunkSize)));
+		}
+		return chunks;
+	}
+}
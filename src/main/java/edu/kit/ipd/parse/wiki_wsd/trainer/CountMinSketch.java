@@ -0,0 +1,251 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.io.Serial;
+
+/**
+ * Count-Min sketch with conservative update for the pair counts of one
+ * attribute, so the memory of the counts is fixed regardless of the amount of
+ * distinct (value, class)-pairs. Keys that become frequent are promoted to a
+ * small map of exact counts (heavy hitters).
+ *
+ * Error bounds: with width <code>w</code> and depth <code>d</code>, let
+ * <code>eps = e / w</code>, <code>delta = exp(-d)</code> and <code>N</code> the total
+ * weight added to the sketch. As long as only positive weights are added, an
+ * estimate is never lower than the true count and exceeds it by at most
+ * <code>eps * N</code> with probability <code>1 - delta</code>. Conservative update
+ * only increments the cells that are needed to keep this invariant, which keeps
+ * the overestimate for infrequent keys considerably lower in practice. The
+ * count of a heavy hitter is exact from its promotion on and keeps the error it
+ * had at that time. Negative weights (removing instances) are subtracted from
+ * every row, so afterwards estimates might also be too low by up to
+ * <code>eps</code> times the removed weight. Only the heavy hitters can be
+ * enumerated with {@link #forEach(LongDoubleHashMap.EntryConsumer)}.
+ *
+ * Not thread-safe.
+ */
+public class CountMinSketch implements ValueCountStore {
+
+	@Serial
+	private static final long serialVersionUID = -2385204630512474126L;
+	static final int DEFAULT_DEPTH = 4;
+	// approximate memory of an entry in a LongDoubleHashMap incl. free slots
+	private static final int BYTES_PER_HEAVY_HITTER = 48;
+
+	private final int width;
+	private final int depth;
+	private final int maxHeavyHitters;
+	// [row * width + column]
+	private final double[] cells;
+	private final LongDoubleHashMap heavyHitters;
+	private double totalWeight = 0;
+	private double weightAtLastSweep = 0;
+
+	/**
+	 * Creates the sketch
+	 *
+	 * @param width
+	 *            amount of cells per row, determines the error eps = e / width
+	 * @param depth
+	 *            amount of rows, determines the probability delta = exp(-depth)
+	 * @param maxHeavyHitters
+	 *            maximum amount of keys that are counted exactly
+	 */
+	public CountMinSketch(int width, int depth, int maxHeavyHitters) {
+		if ((width < 1) || (depth < 1) || (((long) width * depth) > Integer.MAX_VALUE)) {
+			throw new IllegalArgumentException("Invalid sketch dimensions " + width + "x" + depth);
+		}
+		this.width = width;
+		this.depth = depth;
+		this.maxHeavyHitters = Math.max(0, maxHeavyHitters);
+		cells = new double[width * depth];
+		heavyHitters = new LongDoubleHashMap();
+	}
+
+	/**
+	 * Creates a sketch that uses about the provided amount of memory. One eighth
+	 * is reserved for the exact counts of the heavy hitters.
+	 *
+	 * @param bytes
+	 *            memory budget
+	 * @return the sketch
+	 */
+	public static CountMinSketch forBudget(long bytes) {
+		long heavyBytes = bytes / 8;
+		long width = Math.max(1, Math.min(Integer.MAX_VALUE / CountMinSketch.DEFAULT_DEPTH,
+				(bytes - heavyBytes) / Double.BYTES / CountMinSketch.DEFAULT_DEPTH));
+		int maxHeavyHitters = (int) Math.min(Integer.MAX_VALUE, heavyBytes / CountMinSketch.BYTES_PER_HEAVY_HITTER);
+		return new CountMinSketch((int) width, CountMinSketch.DEFAULT_DEPTH, maxHeavyHitters);
+	}
+
+	private int column(long key, int row) {
+		// double hashing: h1 + row * h2
+		long h1 = Hash64.mix(key);
+		long h2 = Hash64.mix(h1) | 1L;
+		return (int) Long.remainderUnsigned(h1 + (row * h2), width);
+	}
+
+	@Override
+	public double get(long key) {
+		if (heavyHitters.containsKey(key)) {
+			return heavyHitters.get(key, 0.);
+		}
+		return estimate(key);
+	}
+
+	private double estimate(long key) {
+		double min = Double.POSITIVE_INFINITY;
+		for (int row = 0; row < depth; row++) {
+			min = Math.min(min, cells[(row * width) + column(key, row)]);
+		}
+		return min;
+	}
+
+	@Override
+	public double addTo(long key, double delta) {
+		if (heavyHitters.containsKey(key)) {
+			return heavyHitters.addTo(key, delta);
+		}
+		totalWeight += delta;
+		if (delta < 0) {
+			// conservative update cannot undo increments, subtract from all rows
+			for (int row = 0; row < depth; row++) {
+				cells[(row * width) + column(key, row)] += delta;
+			}
+			return estimate(key);
+		}
+		double previous = estimate(key);
+		double updated = previous + delta;
+		for (int row = 0; row < depth; row++) {
+			int cell = (row * width) + column(key, row);
+			if (cells[cell] < updated) {
+				cells[cell] = updated;
+			}
+		}
+		// a key is only promoted, if it was already above the error bound before,
+		// so a single instance of a new key never is
+		if (previous > getErrorBound()) {
+			promote(key, updated);
+		}
+		return updated;
+	}
+
+	private void promote(long key, double count) {
+		if ((heavyHitters.size() >= maxHeavyHitters) && !sweep()) {
+			return;
+		}
+		heavyHitters.put(key, count);
+	}
+
+	/**
+	 * Moves the heavy hitters, that fell below the error bound, back into the
+	 * sketch. Sweeps at most once per doubling of the weight to keep updates
+	 * cheap.
+	 *
+	 * @return <code>true</code> if there is room for another heavy hitter
+	 */
+	private boolean sweep() {
+		if ((maxHeavyHitters == 0) || (totalWeight < (2 * weightAtLastSweep))) {
+			return false;
+		}
+		weightAtLastSweep = totalWeight;
+		double threshold = getErrorBound();
+		LongDoubleHashMap remaining = new LongDoubleHashMap(heavyHitters.size());
+		heavyHitters.forEach((key, count) -> {
+			if (count > threshold) {
+				remaining.put(key, count);
+			} else {
+				demote(key, count);
+			}
+		});
+		heavyHitters.clear();
+		remaining.forEach(heavyHitters::put);
+		return heavyHitters.size() < maxHeavyHitters;
+	}
+
+	private void demote(long key, double count) {
+		for (int row = 0; row < depth; row++) {
+			int cell = (row * width) + column(key, row);
+			cells[cell] = Math.max(cells[cell], count);
+		}
+	}
+
+	@Override
+	public void add(ValueCountStore other, double sign) {
+		if (other instanceof CountMinSketch) {
+			CountMinSketch sketch = (CountMinSketch) other;
+			if ((sketch.width != width) || (sketch.depth != depth)) {
+				throw new IllegalArgumentException("Sketches have different dimensions!");
+			}
+			// the cell-wise sum of sketches is the sketch of the concatenated data
+			for (int i = 0; i < cells.length; i++) {
+				cells[i] += sign * sketch.cells[i];
+			}
+			totalWeight += sign * sketch.totalWeight;
+			// exact counts of this sketch are not read from the cells, so they need
+			// the estimate of the other sketch, unless the other one counts them
+			// exactly as well
+			heavyHitters.forEach((key, count) -> {
+				if (!sketch.heavyHitters.containsKey(key)) {
+					heavyHitters.addTo(key, sign * sketch.estimate(key));
+				}
+			});
+			// the cells already contain the counts of the heavy hitters until their promotion
+			sketch.heavyHitters.forEach((key, count) -> addTo(key,
+					sign * (heavyHitters.containsKey(key) ? count : (count - sketch.estimate(key)))));
+			return;
+		}
+		other.forEach((key, count) -> addTo(key, sign * count));
+	}
+
+	@Override
+	public CountMinSketch emptyCopy() {
+		return new CountMinSketch(width, depth, maxHeavyHitters);
+	}
+
+	@Override
+	public void forEach(LongDoubleHashMap.EntryConsumer consumer) {
+		heavyHitters.forEach(consumer);
+	}
+
+	@Override
+	public int size() {
+		return heavyHitters.size();
+	}
+
+	/**
+	 * Returns the bound eps * N of the overestimate of a count
+	 *
+	 * @return the error bound for the currently added weight
+	 */
+	public double getErrorBound() {
+		return (Math.E / width) * totalWeight;
+	}
+
+	/**
+	 * Returns the probability, that an estimate exceeds the error bound
+	 *
+	 * @return delta
+	 */
+	public double getFailureProbability() {
+		return Math.exp(-depth);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Summary of the size and the error bounds of the sketch
+	 *
+	 * @return human readable summary
+	 */
+	public String summary() {
+		return "Count-Min sketch " + width + "x" + depth + " (" + ((long) cells.length * Double.BYTES / (1024 * 1024)) + " MB), "
+				+ heavyHitters.size() + "/" + maxHeavyHitters + " exact heavy hitters, error <= "
+				+ String.format("%.2f", getErrorBound()) + " with probability " + String.format("%.3f", 1 - getFailureProbability());
+	}
+}
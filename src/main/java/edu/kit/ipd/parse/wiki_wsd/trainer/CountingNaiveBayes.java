@@ -0,0 +1,415 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Updateable Naive Bayes classifier for nominal attributes that is backed by
+ * {@link NaiveBayesCounts}. Optionally restricts the scored classes to the
+ * senses that were observed together with the lemma of the instance (see
+ * {@link SenseCandidateIndex}), so classifying costs O(candidates) instead of
+ * O(classes). Instances with unseen lemmas are scored against all classes.
+ * Blocks of instances can be scored into reusable buffers, see
+ * {@link #distributionsForBlock(List, double[][])}. Scoring uses
+ * {@link LogProbabilityTables}, that are compiled from exact counts after
+ * building and updating and are saved with the model.
+ *
+ * With a sketch budget (see {@link #setSketchBudget(long)}), the pair counts of
+ * all attributes except the class and the lemma are kept in
+ * {@link CountMinSketch}es, so the memory does not grow with the amount of
+ * distinct context values. The lemma stays exact, it is needed for the
+ * candidate index and has few values. The budget holds for one model; every
+ * copy of the model or of its counts allocates it again.
+ */
+public class CountingNaiveBayes extends AbstractClassifier implements UpdateableClassifier {
+
+	@Serial
+	private static final long serialVersionUID = -4570806112549446407L;
+	private static final Logger logger = Logger.getLogger(CountingNaiveBayes.class.getName());
+	static final int LEMMA_INDEX = 1;
+
+	private final boolean restrictToCandidates;
+	private long sketchBudget = 0;
+	private NaiveBayesCounts counts;
+	private volatile Compiled compiled = null;
+	private volatile boolean countsChanged = false;
+
+	/**
+	 * Candidate index and tables of the same counts, published together by one
+	 * assignment, so scoring never combines the parts of two compilations
+	 */
+	private static final class Compiled implements Serializable {
+		@Serial
+		private static final long serialVersionUID = 2273946016271410758L;
+
+		// null if scoring is not restricted
+		private final SenseCandidateIndex candidates;
+		// null if the counts are approximate
+		private final LogProbabilityTables tables;
+
+		private Compiled(SenseCandidateIndex candidates, LogProbabilityTables tables) {
+			this.candidates = candidates;
+			this.tables = tables;
+		}
+	}
+
+	public CountingNaiveBayes() {
+		this(false);
+	}
+
+	/**
+	 * Creates the classifier
+	 *
+	 * @param restrictToCandidates
+	 *            if set, only the senses observed with the lemma of an instance are
+	 *            scored
+	 */
+	public CountingNaiveBayes(boolean restrictToCandidates) {
+		this.restrictToCandidates = restrictToCandidates;
+	}
+
+	@Override
+	public synchronized void buildClassifier(Instances data) throws Exception {
+		counts = new NaiveBayesCounts(data);
+		approximateCounts();
+		for (Instance instance : data) {
+			counts.add(instance);
+		}
+		for (int a = 0; a < counts.numAttributes(); a++) {
+			if (counts.getValueCounts(a) instanceof CountMinSketch) {
+				CountingNaiveBayes.logger.info(data.attribute(a).name() + ": " + ((CountMinSketch) counts.getValueCounts(a)).summary());
+			}
+		}
+		countsChanged = true;
+		compile();
+	}
+
+	private void approximateCounts() {
+		if (sketchBudget <= 0) {
+			return;
+		}
+		int approximated = 0;
+		for (int a = 0; a < counts.numAttributes(); a++) {
+			if ((a != counts.getClassIndex()) && (a != CountingNaiveBayes.LEMMA_INDEX)) {
+				approximated++;
+			}
+		}
+		if (approximated == 0) {
+			// only the class and the lemma, that stay exact
+			return;
+		}
+		for (int a = 0; a < counts.numAttributes(); a++) {
+			if ((a != counts.getClassIndex()) && (a != CountingNaiveBayes.LEMMA_INDEX)) {
+				counts.approximate(a, CountMinSketch.forBudget(sketchBudget / approximated));
+			}
+		}
+	}
+
+	@Override
+	public synchronized void updateClassifier(Instance instance) throws Exception {
+		counts.add(instance);
+		countsChanged = true;
+	}
+
+	/**
+	 * Counts several (already converted) instances at once, e.g. a chunk that was
+	 * converted in parallel
+	 *
+	 * @param instances
+	 *            the instances
+	 */
+	public synchronized void addInstances(List<Instance> instances) {
+		for (Instance instance : instances) {
+			counts.add(instance);
+		}
+		countsChanged = true;
+	}
+
+	/**
+	 * Removes a previously counted instance from the counts
+	 *
+	 * @param instance
+	 *            the instance to remove
+	 */
+	public synchronized void removeInstance(Instance instance) {
+		counts.add(instance, -instance.weight());
+		countsChanged = true;
+	}
+
+	/**
+	 * Adapts the classifier to a header, whose nominal attributes got additional
+	 * values appended (see {@link DictionaryEncoder#extend(Instances)}).
+	 *
+	 * @param header
+	 *            the extended header
+	 */
+	public synchronized void extendHeader(Instances header) {
+		counts.extend(header);
+		countsChanged = true;
+	}
+
+	/**
+	 * Adds counts (e.g. of a part of the data, that was counted separately) to the
+	 * counts of this classifier.
+	 *
+	 * @param partialCounts
+	 *            counts with the same layout
+	 */
+	public synchronized void addCounts(NaiveBayesCounts partialCounts) {
+		counts.add(partialCounts);
+		countsChanged = true;
+	}
+
+	/**
+	 * Creates a classifier with the counts of this classifier minus the provided
+	 * counts, e.g. the model of a cross validation fold without its test part.
+	 * This classifier is not changed. Only copying the counts locks this
+	 * classifier, so several reduced classifiers can be created in parallel.
+	 *
+	 * @param removedCounts
+	 *            counts with the same layout, that are part of the counts of this
+	 *            classifier
+	 * @return the reduced classifier
+	 */
+	public CountingNaiveBayes without(NaiveBayesCounts removedCounts) {
+		NaiveBayesCounts reducedCounts;
+		synchronized (this) {
+			reducedCounts = counts.emptyCopy();
+			reducedCounts.add(counts);
+		}
+		reducedCounts.subtract(removedCounts);
+		return withCounts(reducedCounts);
+	}
+
+	/**
+	 * Creates a classifier with the counts of this classifier minus the provided
+	 * instances, e.g. the model of a cross validation fold without its test part.
+	 * Unlike {@link #without(NaiveBayesCounts)}, the removed instances are not
+	 * counted into a table of their own first, so only one copy of the counts is
+	 * allocated. This matters for approximate counts, whose copies always take
+	 * the full budget.
+	 *
+	 * @param removedInstances
+	 *            (encoded) instances, that were counted by this classifier
+	 * @return the reduced classifier
+	 */
+	public CountingNaiveBayes without(List<Instance> removedInstances) {
+		NaiveBayesCounts reducedCounts;
+		synchronized (this) {
+			reducedCounts = counts.emptyCopy();
+			reducedCounts.add(counts);
+		}
+		for (Instance instance : removedInstances) {
+			reducedCounts.add(instance, -instance.weight());
+		}
+		return withCounts(reducedCounts);
+	}
+
+	private CountingNaiveBayes withCounts(NaiveBayesCounts reducedCounts) {
+		CountingNaiveBayes reduced = new CountingNaiveBayes(restrictToCandidates);
+		reduced.sketchBudget = sketchBudget;
+		reduced.counts = reducedCounts;
+		reduced.countsChanged = true;
+		reduced.compile();
+		return reduced;
+	}
+
+	/**
+	 * Rebuilds the candidate index and the log-probability tables if the counts
+	 * changed since they were built
+	 */
+	public synchronized void compile() {
+		if (countsChanged) {
+			compiled = new Compiled(restrictToCandidates ? SenseCandidateIndex.fromCounts(counts, LEMMA_INDEX) : null,
+					LogProbabilityTables.compile(counts));
+		}
+		countsChanged = false;
+	}
+
+	@Serial
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		// saved models always contain up to date tables
+		compile();
+		out.defaultWriteObject();
+	}
+
+	@Serial
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		// models saved before the tables were part of the model have none, they are
+		// compiled from the counts when scoring the first time
+		if (compiled == null) {
+			countsChanged = true;
+		}
+	}
+
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		if (countsChanged) {
+			compile();
+		}
+		double[] distribution = new double[counts.numClasses()];
+		score(compiled, instance, distribution);
+		CountingNaiveBayes.toProbabilities(distribution);
+		return distribution;
+	}
+
+	@Override
+	public double[][] distributionsForInstances(Instances instances) throws Exception {
+		double[][] distributions = new double[instances.size()][counts.numClasses()];
+		distributionsForBlock(instances, distributions);
+		return distributions;
+	}
+
+	@Override
+	public boolean implementsMoreEfficientBatchPrediction() {
+		return true;
+	}
+
+	/**
+	 * Computes the class distributions of a block of (encoded) instances into a
+	 * buffer, that can be reused for the next block. Nothing is allocated per
+	 * instance. Other models are still scored per instance by the evaluation.
+	 *
+	 * @param block
+	 *            the instances
+	 * @param buffer
+	 *            at least one row per instance, each with one entry per class
+	 */
+	public void distributionsForBlock(List<Instance> block, double[][] buffer) {
+		logLikelihoodsForBlock(block, buffer);
+		for (int i = 0; i < block.size(); i++) {
+			CountingNaiveBayes.toProbabilities(buffer[i]);
+		}
+	}
+
+	/**
+	 * Computes the (unnormalized) log joint probabilities of each instance of the
+	 * block and each class into a buffer, that can be reused for the next block.
+	 * Classes that are no candidates of the lemma of an instance get negative
+	 * infinity.
+	 *
+	 * @param block
+	 *            the instances
+	 * @param buffer
+	 *            at least one row per instance, each with one entry per class
+	 */
+	public void logLikelihoodsForBlock(List<Instance> block, double[][] buffer) {
+		if ((buffer.length < block.size()) || ((block.size() > 0) && (buffer[0].length != counts.numClasses()))) {
+			throw new IllegalArgumentException("Buffer needs " + block.size() + " rows with " + counts.numClasses() + " entries!");
+		}
+		if (countsChanged) {
+			compile();
+		}
+		Compiled current = compiled;
+		for (int i = 0; i < block.size(); i++) {
+			score(current, block.get(i), buffer[i]);
+		}
+	}
+
+	private void score(Compiled current, Instance instance, double[] row) {
+		SenseCandidateIndex candidates = current.candidates;
+		// approximate counts cannot be compiled into tables
+		LogProbabilityTables tables = current.tables;
+		int lemma = (candidates == null) || instance.isMissing(LEMMA_INDEX) ? -1 : (int) instance.value(LEMMA_INDEX);
+		if ((lemma >= 0) && (candidates.numCandidates(lemma) > 0)) {
+			Arrays.fill(row, Double.NEGATIVE_INFINITY);
+			for (int i = candidates.begin(lemma); i < candidates.end(lemma); i++) {
+				int sense = candidates.senseAt(i);
+				row[sense] = (tables != null) ? tables.logJoint(instance, sense) : counts.logJoint(instance, sense);
+			}
+			return;
+		}
+
+		// fallback: score all classes
+		if (tables != null) {
+			tables.logJoints(instance, row);
+			return;
+		}
+		for (int c = 0; c < row.length; c++) {
+			row[c] = counts.logJoint(instance, c);
+		}
+	}
+
+	/**
+	 * Converts log probabilities into normalized probabilities in place, like
+	 * {@link Utils#logs2probs(double[])}
+	 */
+	private static void toProbabilities(double[] row) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (double value : row) {
+			max = Math.max(max, value);
+		}
+		double sum = 0;
+		for (int c = 0; c < row.length; c++) {
+			row[c] = Math.exp(row[c] - max);
+			sum += row[c];
+		}
+		for (int c = 0; c < row.length; c++) {
+			row[c] /= sum;
+		}
+	}
+
+	@Override
+	public Capabilities getCapabilities() {
+		Capabilities result = super.getCapabilities();
+		result.disableAll();
+		result.enable(Capability.NOMINAL_ATTRIBUTES);
+		result.enable(Capability.MISSING_VALUES);
+		result.enable(Capability.NOMINAL_CLASS);
+		result.enable(Capability.MISSING_CLASS_VALUES);
+		return result;
+	}
+
+	/**
+	 * Sets the memory for approximate pair counts, that is shared by all
+	 * attributes except the class and the lemma. Takes effect with the next
+	 * {@link #buildClassifier(Instances)}.
+	 *
+	 * @param bytes
+	 *            memory budget in bytes, 0 for exact counts
+	 */
+	public void setSketchBudget(long bytes) {
+		sketchBudget = bytes;
+	}
+
+	public long getSketchBudget() {
+		return sketchBudget;
+	}
+
+	/**
+	 * Returns the counts backing this classifier
+	 *
+	 * @return the counts
+	 */
+	public NaiveBayesCounts getCounts() {
+		return counts;
+	}
+
+	/**
+	 * Returns the index of the candidate senses per lemma
+	 *
+	 * @return the index or <code>null</code>, if scoring is not restricted
+	 */
+	public SenseCandidateIndex getCandidateIndex() {
+		if (countsChanged) {
+			compile();
+		}
+		Compiled current = compiled;
+		return (current != null) ? current.candidates : null;
+	}
+}
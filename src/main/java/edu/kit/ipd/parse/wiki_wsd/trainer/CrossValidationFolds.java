@@ -0,0 +1,174 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Random;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Folds of a cross validation as views on the unchanged data. The data is
+ * shuffled and stratified in a permutation of the row indices, like
+ * {@link Instances#randomize(Random)} and {@link Instances#stratify(int)} do
+ * it, but the class values are only read once into a primitive array and the
+ * rows are grouped by a counting sort. The test part of a fold is a contiguous
+ * range of the permutation like in {@link Instances#testCV(int, int)}, the
+ * training part is the rest.
+ *
+ * The views share the rows of the data, so neither the data is reordered nor
+ * are copies of the folds created.
+ */
+public class CrossValidationFolds {
+	private final Instances data;
+	private final int numFolds;
+	private final int[] order;
+
+	/**
+	 * Creates the folds
+	 *
+	 * @param data
+	 *            the data, stays unchanged
+	 * @param numFolds
+	 *            amount of folds
+	 * @param random
+	 *            random number generator for shuffling
+	 */
+	public CrossValidationFolds(Instances data, int numFolds, Random random) {
+		if ((numFolds < 2) || (numFolds > data.size())) {
+			throw new IllegalArgumentException("Invalid number of folds " + numFolds + " for " + data.size() + " instances!");
+		}
+		this.data = data;
+		this.numFolds = numFolds;
+		int[] shuffled = new int[data.size()];
+		for (int i = 0; i < shuffled.length; i++) {
+			shuffled[i] = i;
+		}
+		for (int i = shuffled.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = shuffled[i];
+			shuffled[i] = shuffled[j];
+			shuffled[j] = swap;
+		}
+		order = data.classAttribute().isNominal() ? stratify(shuffled) : shuffled;
+	}
+
+	private int[] stratify(int[] shuffled) {
+		// stable counting sort by class, missing classes last
+		int classIndex = data.classIndex();
+		int missing = data.numClasses();
+		int[] classes = new int[data.size()];
+		int[] offsets = new int[missing + 2];
+		for (int i = 0; i < classes.length; i++) {
+			Instance instance = data.get(i);
+			classes[i] = instance.isMissing(classIndex) ? missing : (int) instance.value(classIndex);
+			offsets[classes[i] + 2]++;
+		}
+		for (int c = 2; c < offsets.length; c++) {
+			offsets[c] += offsets[c - 1];
+		}
+		int[] sorted = new int[shuffled.length];
+		for (int row : shuffled) {
+			sorted[offsets[classes[row] + 1]++] = row;
+		}
+		// deal the sorted rows to the folds, like Instances#stratify does
+		int[] stratified = new int[sorted.length];
+		int position = 0;
+		for (int start = 0; start < numFolds; start++) {
+			for (int j = start; j < sorted.length; j += numFolds) {
+				stratified[position++] = sorted[j];
+			}
+		}
+		return stratified;
+	}
+
+	/**
+	 * Returns the position of the first test instance of the fold in the
+	 * permutation
+	 *
+	 * @param fold
+	 *            the fold
+	 * @return first position of the test part
+	 */
+	public int testBegin(int fold) {
+		int foldSize = order.length / numFolds;
+		return (fold * foldSize) + Math.min(fold, order.length % numFolds);
+	}
+
+	/**
+	 * Returns the position after the last test instance of the fold in the
+	 * permutation
+	 *
+	 * @param fold
+	 *            the fold
+	 * @return position after the test part
+	 */
+	public int testEnd(int fold) {
+		return testBegin(fold + 1);
+	}
+
+	/**
+	 * Returns the test instances of the fold
+	 *
+	 * @param fold
+	 *            the fold
+	 * @return view on the shared rows
+	 */
+	public List<Instance> test(int fold) {
+		int begin = testBegin(fold);
+		int end = testEnd(fold);
+		return new AbstractList<Instance>() {
+			@Override
+			public Instance get(int index) {
+				return data.get(order[begin + index]);
+			}
+
+			@Override
+			public int size() {
+				return end - begin;
+			}
+		};
+	}
+
+	/**
+	 * Returns the training instances of the fold, all instances except the test
+	 * instances
+	 *
+	 * @param fold
+	 *            the fold
+	 * @return view on the shared rows
+	 */
+	public List<Instance> train(int fold) {
+		int begin = testBegin(fold);
+		int end = testEnd(fold);
+		return new AbstractList<Instance>() {
+			@Override
+			public Instance get(int index) {
+				return data.get(order[(index < begin) ? index : (index + (end - begin))]);
+			}
+
+			@Override
+			public int size() {
+				return order.length - (end - begin);
+			}
+		};
+	}
+
+	/**
+	 * Copies the instances into a data set with the header of the data, for
+	 * classifiers that can only be built with {@link Instances}
+	 *
+	 * @param instances
+	 *            e.g. a view of a fold
+	 * @return the data set
+	 */
+	public Instances toInstances(List<Instance> instances) {
+		Instances result = new Instances(data, instances.size());
+		result.addAll(instances);
+		return result;
+	}
+
+	public int numFolds() {
+		return numFolds;
+	}
+}
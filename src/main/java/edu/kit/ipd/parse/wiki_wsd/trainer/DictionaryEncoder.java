@@ -0,0 +1,311 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.filters.Filter;
+import weka.filters.StreamableFilter;
+import weka.filters.UnsupervisedFilter;
+import weka.filters.unsupervised.attribute.StringToNominal;
+
+/**
+ * Converts all string attributes to nominal attributes. Replaces the
+ * StringToNominal-Filtering of the whole data set: {@link #encode(Instances)}
+ * finds the used values in one read pass and creates the nominal output with at
+ * most one copy of the attribute values. If the string dictionaries are already
+ * dense (the usual case), the value arrays of the input are shared and no copy
+ * is made at all.
+ *
+ * After encoding, the filter holds the dictionaries and can be used like any
+ * other filter (e.g. within the ClassifierService) to convert single
+ * instances. Values that are not in the dictionary are set to missing, as
+ * StringToNominal does. Saved models ship a StringToNominal filter with the
+ * same dictionaries instead (see {@link #toStringToNominal()}), so they can be
+ * used without the trainer on the classpath.
+ */
+public class DictionaryEncoder extends Filter implements UnsupervisedFilter, StreamableFilter {
+
+	@Serial
+	private static final long serialVersionUID = -3185806340452712938L;
+
+	private Instances header = null;
+
+	/**
+	 * Encodes the provided instances. The dictionaries of this encoder are
+	 * (re-)built from the values that are used within the provided data.
+	 *
+	 * @param data
+	 *            instances with string attributes
+	 * @return instances where all string attributes are nominal
+	 * @throws Exception
+	 *             if the input format cannot be set
+	 */
+	public Instances encode(Instances data) throws Exception {
+		int numAttributes = data.numAttributes();
+		// read pass: collect used values per string attribute in order of their
+		// first appearance
+		int[][] remap = new int[numAttributes][];
+		int[] nextValue = new int[numAttributes];
+		for (int a = 0; a < numAttributes; a++) {
+			if (data.attribute(a).isString()) {
+				remap[a] = new int[data.attribute(a).numValues()];
+				Arrays.fill(remap[a], -1);
+			}
+		}
+		for (Instance instance : data) {
+			for (int a = 0; a < numAttributes; a++) {
+				if ((remap[a] != null) && !instance.isMissing(a)) {
+					int index = (int) instance.value(a);
+					if (remap[a][index] < 0) {
+						remap[a][index] = nextValue[a]++;
+					}
+				}
+			}
+		}
+
+		// build the nominal header
+		ArrayList<Attribute> attributes = new ArrayList<>(numAttributes);
+		boolean identity = true;
+		for (int a = 0; a < numAttributes; a++) {
+			Attribute attribute = data.attribute(a);
+			if (remap[a] == null) {
+				attributes.add((Attribute) attribute.copy());
+				continue;
+			}
+			String[] values = new String[nextValue[a]];
+			boolean attributeIdentity = true;
+			for (int i = 0; i < remap[a].length; i++) {
+				if (remap[a][i] >= 0) {
+					values[remap[a][i]] = attribute.value(i);
+				}
+				attributeIdentity &= (remap[a][i] == i);
+			}
+			attributes.add(new Attribute(attribute.name(), Arrays.asList(values)));
+			if (attributeIdentity) {
+				// identity mapping needs no remapping
+				remap[a] = null;
+			} else {
+				identity = false;
+			}
+		}
+		Instances output = new Instances(data.relationName(), attributes, data.size());
+		for (int a = 0; a < numAttributes; a++) {
+			if (data.attribute(a).weight() != 1.) {
+				output.setAttributeWeight(a, data.attribute(a).weight());
+			}
+		}
+		output.setClassIndex(data.classIndex());
+
+		// write pass
+		for (Instance instance : data) {
+			if (identity) {
+				// shallow copy, the value array is shared
+				output.add(instance);
+				continue;
+			}
+			double[] values = instance.toDoubleArray();
+			for (int a = 0; a < numAttributes; a++) {
+				if ((remap[a] != null) && !instance.isMissing(a)) {
+					values[a] = remap[a][(int) values[a]];
+				}
+			}
+			output.add(new DenseInstance(instance.weight(), values));
+		}
+
+		super.setInputFormat(new Instances(data, 0));
+		setHeader(new Instances(output, 0));
+		return output;
+	}
+
+	/**
+	 * Sets the input format and derives the dictionaries from the values the
+	 * string attributes of the provided format contain.
+	 */
+	@Override
+	public boolean setInputFormat(Instances instanceInfo) throws Exception {
+		super.setInputFormat(instanceInfo);
+		ArrayList<Attribute> attributes = new ArrayList<>(instanceInfo.numAttributes());
+		for (int a = 0; a < instanceInfo.numAttributes(); a++) {
+			Attribute attribute = instanceInfo.attribute(a);
+			if (attribute.isString()) {
+				List<String> values = new ArrayList<>(attribute.numValues());
+				for (int i = 0; i < attribute.numValues(); i++) {
+					values.add(attribute.value(i));
+				}
+				attributes.add(new Attribute(attribute.name(), values));
+			} else {
+				attributes.add((Attribute) attribute.copy());
+			}
+		}
+		Instances outputFormat = new Instances(instanceInfo.relationName(), attributes, 0);
+		for (int a = 0; a < instanceInfo.numAttributes(); a++) {
+			if (instanceInfo.attribute(a).weight() != 1.) {
+				outputFormat.setAttributeWeight(a, instanceInfo.attribute(a).weight());
+			}
+		}
+		outputFormat.setClassIndex(instanceInfo.classIndex());
+		setHeader(outputFormat);
+		return true;
+	}
+
+	/**
+	 * Extends the dictionaries by the values of the provided data that are not in
+	 * the dictionaries yet. New values are appended, so already encoded values stay
+	 * valid.
+	 *
+	 * @param data
+	 *            instances with the same attribute layout as the encoded data
+	 * @return true, if at least one dictionary was extended
+	 */
+	public boolean extend(Instances data) {
+		if (header == null) {
+			throw new IllegalStateException("Nothing was encoded yet");
+		}
+		ArrayList<Attribute> attributes = new ArrayList<>(header.numAttributes());
+		boolean extended = false;
+		for (int a = 0; a < header.numAttributes(); a++) {
+			Attribute attribute = header.attribute(a);
+			if (!attribute.isNominal() || !(data.attribute(a).isString() || data.attribute(a).isNominal())) {
+				attributes.add((Attribute) attribute.copy());
+				continue;
+			}
+			List<String> values = new ArrayList<>(attribute.numValues());
+			for (int i = 0; i < attribute.numValues(); i++) {
+				values.add(attribute.value(i));
+			}
+			Set<String> added = new HashSet<>();
+			for (Instance instance : data) {
+				if (!instance.isMissing(a)) {
+					String value = instance.stringValue(a);
+					if ((attribute.indexOfValue(value) < 0) && added.add(value)) {
+						values.add(value);
+					}
+				}
+			}
+			extended |= !added.isEmpty();
+			attributes.add(new Attribute(attribute.name(), values));
+		}
+		if (extended) {
+			Instances extendedHeader = new Instances(header.relationName(), attributes, 0);
+			for (int a = 0; a < header.numAttributes(); a++) {
+				if (header.attribute(a).weight() != 1.) {
+					extendedHeader.setAttributeWeight(a, header.attribute(a).weight());
+				}
+			}
+			extendedHeader.setClassIndex(header.classIndex());
+			setHeader(extendedHeader);
+		}
+		return extended;
+	}
+
+	/**
+	 * Creates a StringToNominal filter with the dictionaries of this encoder. It
+	 * maps the values of the string attributes to the same indices as this
+	 * encoder, but only needs weka on the classpath, e.g. in the ClassifierService
+	 * that loads a saved model.
+	 *
+	 * @return the configured filter
+	 * @throws Exception
+	 *             if the filter cannot be configured
+	 */
+	public StringToNominal toStringToNominal() throws Exception {
+		Instances input = getInputFormat();
+		if ((header == null) || (input == null)) {
+			throw new IllegalStateException("Nothing was encoded yet");
+		}
+		int numAttributes = header.numAttributes();
+		ArrayList<Attribute> attributes = new ArrayList<>(numAttributes);
+		int rows = 0;
+		for (int a = 0; a < numAttributes; a++) {
+			if (input.attribute(a).isString() && header.attribute(a).isNominal()) {
+				attributes.add(new Attribute(header.attribute(a).name(), (List<String>) null));
+				rows = Math.max(rows, header.attribute(a).numValues());
+			} else {
+				attributes.add((Attribute) input.attribute(a).copy());
+			}
+		}
+		// row i holds the i-th value of each dictionary, so the filter sees the
+		// values in dictionary order
+		Instances dictionaries = new Instances(header.relationName(), attributes, rows);
+		for (int i = 0; i < rows; i++) {
+			double[] values = new double[numAttributes];
+			Arrays.fill(values, Utils.missingValue());
+			for (int a = 0; a < numAttributes; a++) {
+				if (dictionaries.attribute(a).isString() && (i < header.attribute(a).numValues())) {
+					values[a] = dictionaries.attribute(a).addStringValue(header.attribute(a).value(i));
+				}
+			}
+			dictionaries.add(new DenseInstance(1., values));
+		}
+		dictionaries.setClassIndex(header.classIndex());
+
+		StringToNominal stringFilter = new StringToNominal();
+		stringFilter.setAttributeRange("first-last");
+		stringFilter.setInputFormat(dictionaries);
+		Filter.useFilter(dictionaries, stringFilter);
+		return stringFilter;
+	}
+
+	private void setHeader(Instances header) {
+		this.header = header;
+		setOutputFormat(header);
+	}
+
+	@Override
+	public boolean input(Instance instance) throws Exception {
+		if (getInputFormat() == null) {
+			throw new IllegalStateException("No input instance format defined");
+		}
+		if (m_NewBatch) {
+			resetQueue();
+			m_NewBatch = false;
+		}
+		push(convert(instance));
+		return true;
+	}
+
+	/**
+	 * Converts a single instance using the dictionaries of this encoder. Values are
+	 * looked up by their string representation, so the instance may come from any
+	 * header with the same attribute layout.
+	 *
+	 * @param instance
+	 *            the instance to convert
+	 * @return the converted instance, its dataset is the header of this encoder
+	 */
+	public Instance convert(Instance instance) {
+		double[] values = new double[header.numAttributes()];
+		for (int a = 0; a < values.length; a++) {
+			Attribute outAttribute = header.attribute(a);
+			if (instance.isMissing(a)) {
+				values[a] = Utils.missingValue();
+			} else if (outAttribute.isNominal() && (instance.attribute(a).isString() || instance.attribute(a).isNominal())) {
+				int index = outAttribute.indexOfValue(instance.stringValue(a));
+				values[a] = (index < 0) ? Utils.missingValue() : index;
+			} else {
+				values[a] = instance.value(a);
+			}
+		}
+		Instance converted = new DenseInstance(instance.weight(), values);
+		converted.setDataset(header);
+		return converted;
+	}
+
+	/**
+	 * Returns the header with the nominal attributes
+	 *
+	 * @return the header or <code>null</code>, if nothing was encoded yet
+	 */
+	public Instances getHeader() {
+		return header;
+	}
+}
@@ -1,10 +1,13 @@
 package edu.kit.ipd.parse.wiki_wsd.trainer;
 
 import java.io.Serial;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import weka.classifiers.AbstractClassifier;
@@ -13,13 +16,18 @@ import weka.classifiers.CostMatrix;
 import weka.classifiers.evaluation.Evaluation;
 import weka.classifiers.evaluation.output.prediction.AbstractOutput;
 import weka.core.BatchPredictor;
+import weka.core.DenseInstance;
+import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.Utils;
 
 public class EfficientEvaluation extends Evaluation {
 
 	@Serial
 	private static final long serialVersionUID = -5377637741727845563L;
 	private static final Logger logger = Logger.getLogger(EfficientEvaluation.class.getName());
+	private static final long CHUNK_BUFFER_BYTES = 4L * 1024 * 1024;
+	private static final int MAX_CHUNK_SIZE = 1024;
 
 	public EfficientEvaluation(Instances data) throws Exception {
 		super(data);
@@ -34,12 +42,8 @@ public class EfficientEvaluation extends Evaluation {
 			throws Exception {
 		m_NumFolds = numFolds;
 
-		// Make a copy of the data we can reorder
-		// data = new Instances(data); //TODO need a copy or not?
-		data.randomize(random);
-		if (data.classAttribute().isNominal()) {
-			data.stratify(numFolds);
-		}
+		// the data stays unchanged, the folds are views on its rows
+		CrossValidationFolds folds = new CrossValidationFolds(data, numFolds, random);
 
 		// We assume that the first element is a
 		// weka.classifiers.evaluation.output.prediction.AbstractOutput object
@@ -51,17 +55,22 @@ public class EfficientEvaluation extends Evaluation {
 			classificationOutput.printHeader();
 		}
 
-		// Do the folds
-		for (int i = 0; i < numFolds; i++) {
-			EfficientEvaluation.logger.info("Processing fold " + i);
-			Instances train = data.trainCV(numFolds, i, random);
-			setPriors(train);
-			Classifier copiedClassifier = AbstractClassifier.makeCopy(classifier);
-			EfficientEvaluation.logger.info("Building classifier for fold " + i + " with " + train.size() + " instances.");
-			copiedClassifier.buildClassifier(train);
-			Instances test = data.testCV(numFolds, i);
-			EfficientEvaluation.logger.info("Start evaluating fold " + i + " with " + test.size() + " instances.");
-			evaluateModel(copiedClassifier, test, forPredictionsPrinting);
+		if (classifier instanceof CountingNaiveBayes) {
+			crossValidateByCounts((CountingNaiveBayes) classifier, data, folds, forPredictionsPrinting);
+		} else {
+			// Do the folds
+			for (int i = 0; i < numFolds; i++) {
+				EfficientEvaluation.logger.info("Processing fold " + i);
+				// only the training part has to be copied for building the classifier
+				Instances train = folds.toInstances(folds.train(i));
+				setPriors(train);
+				Classifier copiedClassifier = AbstractClassifier.makeCopy(classifier);
+				EfficientEvaluation.logger.info("Building classifier for fold " + i + " with " + train.size() + " instances.");
+				copiedClassifier.buildClassifier(train);
+				List<Instance> test = folds.test(i);
+				EfficientEvaluation.logger.info("Start evaluating fold " + i + " with " + test.size() + " instances.");
+				evaluateModel(copiedClassifier, data, test, forPredictionsPrinting);
+			}
 		}
 
 		if (classificationOutput != null) {
@@ -69,62 +78,207 @@ public class EfficientEvaluation extends Evaluation {
 		}
 	}
 
+	/**
+	 * Cross validation for count-based models: the classifier is built once with
+	 * all data and the model of each fold is derived by subtracting the counts of
+	 * its test part, instead of training a copy per fold. The fold models are
+	 * derived in parallel in the {@link StageScheduler.Stage#TRAIN} stage, at most
+	 * one per thread ahead of the evaluation, which evaluates the folds in order.
+	 * Every fold model holds a copy of the counts, so approximate counts, whose
+	 * copies take the full sketch budget, derive only one fold ahead.
+	 */
+	private void crossValidateByCounts(CountingNaiveBayes classifier, Instances data, CrossValidationFolds folds,
+			Object... forPredictionsPrinting) throws Exception {
+		int numFolds = folds.numFolds();
+		CountingNaiveBayes full = (CountingNaiveBayes) AbstractClassifier.makeCopy(classifier);
+		EfficientEvaluation.logger.info("Building classifier once with all " + data.size() + " instances.");
+		full.buildClassifier(data);
+
+		StageScheduler scheduler = StageScheduler.get();
+		int window = full.getCounts().isApproximate() ? 1 : scheduler.getThreads(StageScheduler.Stage.TRAIN);
+		List<Future<CountingNaiveBayes>> foldModels = new ArrayList<>(numFolds);
+		try {
+			for (int i = 0; i < numFolds; i++) {
+				while (foldModels.size() < Math.min(numFolds, i + window)) {
+					int fold = foldModels.size();
+					foldModels.add(scheduler.submit(StageScheduler.Stage.TRAIN, () -> full.without(folds.test(fold))));
+				}
+				CountingNaiveBayes foldModel;
+				try {
+					foldModel = foldModels.get(i).get();
+				} catch (ExecutionException e) {
+					throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+				}
+				// release the model of the fold as soon as it is evaluated
+				foldModels.set(i, null);
+				setPriors(foldModel.getCounts(), data);
+				List<Instance> test = folds.test(i);
+				EfficientEvaluation.logger.info("Start evaluating fold " + i + " with " + test.size() + " instances.");
+				evaluateModel(foldModel, data, test, forPredictionsPrinting);
+			}
+		} finally {
+			for (Future<CountingNaiveBayes> foldModel : foldModels) {
+				if (foldModel != null) {
+					foldModel.cancel(true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets the class priors from the class weights of the counts, without the
+	 * training instances of the fold
+	 */
+	private void setPriors(NaiveBayesCounts counts, Instances header) throws Exception {
+		Instances priors = new Instances(header, counts.numClasses());
+		for (int c = 0; c < counts.numClasses(); c++) {
+			double[] values = new double[header.numAttributes()];
+			Arrays.fill(values, Utils.missingValue());
+			values[header.classIndex()] = c;
+			priors.add(new DenseInstance(counts.getClassWeight(c), values));
+		}
+		setPriors(priors);
+	}
+
 	@Override
 	public double[] evaluateModel(Classifier classifier, Instances data, Object... forPredictionsPrinting) throws Exception {
+		return evaluateModel(classifier, data, data, forPredictionsPrinting);
+	}
+
+	/**
+	 * Evaluates the classifier on the instances, e.g. a view of a fold
+	 *
+	 * @param classifier
+	 *            the trained classifier
+	 * @param header
+	 *            data set the instances belong to
+	 * @param instances
+	 *            the instances to evaluate with
+	 * @param forPredictionsPrinting
+	 *            optional output for the predictions
+	 * @return the predictions
+	 * @throws Exception
+	 *             if an instance cannot be classified
+	 */
+	private double[] evaluateModel(Classifier classifier, Instances header, List<Instance> instances, Object... forPredictionsPrinting)
+			throws Exception {
 		// for predictions printing
 		AbstractOutput classificationOutput = null;
 
-		double predictions[] = new double[data.numInstances()];
+		double predictions[] = new double[instances.size()];
 
 		if (forPredictionsPrinting.length > 0) {
 			classificationOutput = (AbstractOutput) forPredictionsPrinting[0];
 		}
 
 		// NaiveBayes is BatchPredictor but not
-		// implementsMoreEfficientBatchPrediction!
-		if ((classifier instanceof BatchPredictor) && ((BatchPredictor) classifier).implementsMoreEfficientBatchPrediction()) {
+		// implementsMoreEfficientBatchPrediction! The CountingNaiveBayes scores
+		// blocks into reusable buffers in the chunks instead of all at once.
+		if (!(classifier instanceof CountingNaiveBayes) && (classifier instanceof BatchPredictor)
+				&& ((BatchPredictor) classifier).implementsMoreEfficientBatchPrediction()) {
 			// make a copy and set the class to missing
-			Instances dataPred = new Instances(data);
-			for (int i = 0; i < data.numInstances(); i++) {
+			Instances dataPred = new Instances(header, instances.size());
+			dataPred.addAll(instances);
+			for (int i = 0; i < instances.size(); i++) {
 				dataPred.instance(i).setClassMissing();
 			}
 			double[][] preds = ((BatchPredictor) classifier).distributionsForInstances(dataPred);
-			for (int i = 0; i < data.numInstances(); i++) {
+			for (int i = 0; i < instances.size(); i++) {
 				double[] p = preds[i];
 
-				predictions[i] = evaluationForSingleInstance(p, data.instance(i), true);
+				predictions[i] = evaluationForSingleInstance(p, instances.get(i), true);
 
 				if (classificationOutput != null) {
-					classificationOutput.printClassification(p, data.instance(i), i);
+					classificationOutput.printClassification(p, instances.get(i), i);
 				}
 			}
 		} else {
-			// Need to be able to collect predictions if appropriate (for AUC)
-			ExecutorService executor = Executors.newWorkStealingPool();
-			for (int i = 0; i < data.numInstances(); i++) {
-				final int index = i;
-				executor.execute(() -> {
-					try {
-						predictions[index] = evaluateModelOnceAndRecordPrediction(classifier, data.instance(index));
-						// if (classificationOutput != null) {
-						// classificationOutput.printClassification(classifier,
-						// data.instance(i),
-						// i);
-						// }
-					} catch (Exception e) {
-						e.printStackTrace(); // TODO ?
-					}
-				});
+			evaluateInChunks(classifier, instances, predictions, classificationOutput);
+		}
+
+		return predictions;
+	}
+
+	/**
+	 * Classifies the instances in chunks in the {@link StageScheduler.Stage#EVALUATE}
+	 * stage. Each chunk only fills its private buffer of distributions; the
+	 * statistics of this evaluation are not thread-safe, so the buffers are
+	 * recorded on the calling thread in chunk order. A private evaluation per chunk
+	 * is no option, as each would have its own numClasses x numClasses confusion
+	 * matrix. The chunk size keeps a buffer at about 4 MB and at most two chunks
+	 * per thread are pending, which bounds the memory regardless of the amount of
+	 * classes. A {@link CountingNaiveBayes} scores each chunk as a block into a
+	 * buffer, that is reused once the chunk is recorded.
+	 */
+	private void evaluateInChunks(Classifier classifier, List<Instance> instances, double[] predictions, AbstractOutput classificationOutput)
+			throws Exception {
+		StageScheduler scheduler = StageScheduler.get();
+		int chunkSize = (int) Math.max(1, Math.min(EfficientEvaluation.MAX_CHUNK_SIZE,
+				EfficientEvaluation.CHUNK_BUFFER_BYTES / Double.BYTES / Math.max(1, m_NumClasses)));
+		int maxPendingChunks = 2 * scheduler.getThreads(StageScheduler.Stage.EVALUATE);
+		ArrayDeque<Future<double[][]>> pending = new ArrayDeque<>();
+		// only used by this thread, buffers are handed to a chunk and returned after recording
+		ArrayDeque<double[][]> freeBuffers = (classifier instanceof CountingNaiveBayes) ? new ArrayDeque<>() : null;
+		try {
+			int recorded = 0;
+			for (int from = 0; from < instances.size(); from += chunkSize) {
+				List<Instance> chunk = instances.subList(from, Math.min(instances.size(), from + chunkSize));
+				if (classifier instanceof CountingNaiveBayes) {
+					CountingNaiveBayes countingClassifier = (CountingNaiveBayes) classifier;
+					double[][] buffer = freeBuffers.isEmpty() ? new double[chunkSize][m_NumClasses] : freeBuffers.poll();
+					pending.add(scheduler.submit(StageScheduler.Stage.EVALUATE, () -> {
+						countingClassifier.distributionsForBlock(chunk, buffer);
+						return buffer;
+					}));
+				} else {
+					pending.add(scheduler.submit(StageScheduler.Stage.EVALUATE, () -> EfficientEvaluation.distributions(classifier, chunk)));
+				}
+				while (pending.size() > maxPendingChunks) {
+					recorded = record(pending, instances, recorded, predictions, classificationOutput, freeBuffers);
+				}
+			}
+			while (!pending.isEmpty()) {
+				recorded = record(pending, instances, recorded, predictions, classificationOutput, freeBuffers);
 			}
-			executor.shutdown();
-			try {
-				executor.awaitTermination(24, TimeUnit.HOURS);
-			} catch (InterruptedException e) {
-				e.printStackTrace(); // TODO ?
+		} finally {
+			for (Future<double[][]> future : pending) {
+				future.cancel(true);
 			}
 		}
+	}
 
-		return predictions;
+	private static double[][] distributions(Classifier classifier, List<Instance> chunk) throws Exception {
+		double[][] distributions = new double[chunk.size()][];
+		for (int i = 0; i < chunk.size(); i++) {
+			// the classifier must not see the class, like in evaluateModelOnceAndRecordPrediction
+			Instance classMissing = (Instance) chunk.get(i).copy();
+			classMissing.setDataset(chunk.get(i).dataset());
+			classMissing.setClassMissing();
+			distributions[i] = classifier.distributionForInstance(classMissing);
+		}
+		return distributions;
 	}
 
+	private int record(ArrayDeque<Future<double[][]>> pending, List<Instance> instances, int recorded, double[] predictions,
+			AbstractOutput classificationOutput, ArrayDeque<double[][]> freeBuffers) throws Exception {
+		double[][] distributions;
+		try {
+			distributions = pending.poll().get();
+		} catch (ExecutionException e) {
+			throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+		}
+		// a reused buffer might have more rows than the (last) chunk
+		int chunkSize = Math.min(distributions.length, instances.size() - recorded);
+		for (int i = 0; i < chunkSize; i++) {
+			int index = recorded + i;
+			predictions[index] = evaluationForSingleInstance(distributions[i], instances.get(index), true);
+			if (classificationOutput != null) {
+				classificationOutput.printClassification(distributions[i], instances.get(index), index);
+			}
+		}
+		if (freeBuffers != null) {
+			freeBuffers.add(distributions);
+		}
+		return recorded + chunkSize;
+	}
 }
@@ -1,14 +1,13 @@
 package edu.kit.ipd.parse.wiki_wsd.trainer;
 
 import java.io.File;
-import java.util.Optional;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.UnaryOperator;
 
 import edu.kit.ipd.pronat.wiki_wsd.classifier.EfficientNaiveBayes;
 import weka.classifiers.Classifier;
-import weka.classifiers.evaluation.Evaluation;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.converters.ConverterUtils.DataSource;
@@ -20,7 +19,15 @@ import weka.core.converters.ConverterUtils.DataSource;
  */
 public class EfficientWikiWSDTrainer extends WikiWSDTrainer {
 
+	private static final int SLOW_LOAD_BATCH_SIZE = 100_000;
+	private static final int SLOW_LOAD_PREFETCHED_BATCHES = 4;
+
 	private String arffDirectory = null;
+	private boolean partitionByLemma = false;
+	private boolean monosemousLookup = false;
+	// the classifier with the enabled wrappers, originalClassifier stays
+	// unwrapped, so building again does not wrap it twice
+	private Classifier builtClassifier = null;
 
 	/**
 	 * If this constructor is used it means that the training instances will be
@@ -53,13 +60,19 @@ public class EfficientWikiWSDTrainer extends WikiWSDTrainer {
 	public void buildClassifier() {
 		try {
 			trainingSet = filter(trainingSet, getFilter());
-			if (!trainingSet.attribute(0).isNominal()) {
-				trainingSet = stringToNominalFiltering(trainingSet);
-			}
 
 			if (arffDirectory == null) {
-				originalClassifier.buildClassifier(trainingSet);
+				Classifier classifier = originalClassifier;
+				if (partitionByLemma) {
+					classifier = new LemmaPartitionedClassifier(classifier);
+				}
+				if (monosemousLookup) {
+					classifier = new MonosemousLemmaClassifier(classifier);
+				}
+				builtClassifier = classifier;
+				classifier.buildClassifier(trainingSet);
 			} else {
+				builtClassifier = originalClassifier;
 				Instances emptySet = new DataSource(trainingSet).getStructure();
 				originalClassifier.buildClassifier(emptySet);
 				trainClassifierBySlowLoadInstances();
@@ -74,93 +87,121 @@ public class EfficientWikiWSDTrainer extends WikiWSDTrainer {
 
 	@Override
 	public void updateClassifier(Instances instances) {
-		if (!instances.attribute(1).isNominal()) {
+		UnaryOperator<Instance> converter = getConverter(instances);
+		if (!instances.attribute(1).isNominal() && (converter == null)) {
 			Trainer.logger.warning("Could not update classifier because instances are not nominal!");
 			return;
 		}
-		ExecutorService executor = Executors.newWorkStealingPool();
-		for (Instance instance : trainingSet) {
-			executor.execute(() -> {
-				try {
-					((EfficientNaiveBayes) originalClassifier).updateClassifier(instance);
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-			});
-		}
-		executor.shutdown();
 		try {
-			executor.awaitTermination(42, TimeUnit.MINUTES);
-		} catch (InterruptedException e) {
+			new ChunkedUpdater().update(getClassifier(), instances, converter);
+		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		executor = null;
 	}
 
-	private void trainClassifierBySlowLoadInstances() {
-		// load arff files and update the classifier
-		Instances data = null;
-		File dir = new File(arffDirectory);
-		for (File file : dir.listFiles()) {
-			if (!DataSource.isArff(file.getAbsolutePath())) {
-				continue;
-			}
-			try {
-				DataSource source = new DataSource(file.getAbsolutePath());
-				data = source.getDataSet();
-				data.setClassIndex(0);
-				ExecutorService executor = Executors.newWorkStealingPool();
-				for (Instance instance : data) {
-					executor.execute(() -> {
-						try {
-							((EfficientNaiveBayes) originalClassifier).updateClassifier(instance);
-						} catch (Exception e) {
-							e.printStackTrace();
-						}
-					});
-				}
-				source = null;
-				data = null;
-				executor.shutdown();
-				executor.awaitTermination(100, TimeUnit.MINUTES);
-				executor = null;
-			} catch (Exception e) {
-				logger.warning(e.getLocalizedMessage());
-			}
+	/**
+	 * Returns the converter for instances that are not encoded yet
+	 *
+	 * @param instances
+	 *            instances that should be used for updating
+	 * @return the converter or <code>null</code>, if the instances are already
+	 *         nominal or there is no dictionary to encode them
+	 */
+	private UnaryOperator<Instance> getConverter(Instances instances) {
+		if (instances.attribute(1).isNominal() || !(getFilter() instanceof DictionaryEncoder)) {
+			return null;
 		}
+		DictionaryEncoder encoder = (DictionaryEncoder) getFilter();
+		return (encoder.getHeader() != null) ? encoder::convert : null;
 	}
 
-	@Override
-	public Optional<Evaluation> evaluate(boolean crossValidation) {
-		if (!trainingSet.attribute(1).isNominal() || !trainingSet.attribute(trainingSet.numAttributes() - 1).isNominal()) {
-			// attributes are not nominal, filter them first!
-			try {
-				trainingSet = filterStringToNominal(trainingSet, "2-last");
-			} catch (Exception e) {
-				e.printStackTrace();
-				return Optional.empty();
+	/**
+	 * Streams the arff files of the directory into the classifier. The
+	 * dictionaries of the {@link CountingNaiveBayes} are extended by each batch
+	 * (see {@link ModelUpdater#add(Instances)}), so the training set may be empty
+	 * and is only needed for its header. Other classifiers use the dictionaries
+	 * of the training set.
+	 *
+	 * @throws Exception
+	 *             if a shard cannot be read or the classifier cannot be updated,
+	 *             the classifier is incomplete then
+	 */
+	private void trainClassifierBySlowLoadInstances() throws Exception {
+		// stream the arff files and update the classifier, while the next batches
+		// are read in the background
+		List<File> shards = new ArrayList<>();
+		File arff = new File(arffDirectory);
+		for (File file : arff.isDirectory() ? arff.listFiles() : new File[] { arff }) {
+			if (DataSource.isArff(file.getAbsolutePath())) {
+				shards.add(file);
 			}
 		}
-		if (isBuild) {
-			return (crossValidation) ? evaluateCrossValidationFolds(trainingSet, 10) : evaluateWithInstances(trainingSet);
-		} else {
-			return Optional.empty();
+		Collections.sort(shards);
+		ModelUpdater modelUpdater = null;
+		UnaryOperator<Instance> converter = null;
+		if ((originalClassifier instanceof CountingNaiveBayes) && (getFilter() instanceof DictionaryEncoder)) {
+			modelUpdater = new ModelUpdater(originalClassifier, (DictionaryEncoder) getFilter(), trainingSet);
+		} else if (getFilter() instanceof DictionaryEncoder) {
+			converter = ((DictionaryEncoder) getFilter())::convert;
+		}
+		ChunkedUpdater updater = new ChunkedUpdater();
+		try (PrefetchingArffReader reader = new PrefetchingArffReader(shards, converter, SLOW_LOAD_BATCH_SIZE, SLOW_LOAD_PREFETCHED_BATCHES)) {
+			List<Instance> batch;
+			while ((batch = reader.nextBatch()) != null) {
+				if (modelUpdater != null) {
+					// the batches keep their string values without a converter
+					modelUpdater.add((Instances) batch);
+				} else {
+					updater.update(originalClassifier, batch, null);
+				}
+			}
 		}
 	}
 
 	@Override
 	public Classifier getClassifier() {
-		return originalClassifier;
+		return (builtClassifier != null) ? builtClassifier : originalClassifier;
 	}
 
+	/**
+	 * Sets the arff-files the classifier is trained with one after another
+	 * instead of the training set
+	 *
+	 * @param directory
+	 *            directory of arff-files or a single arff-file
+	 */
 	public void setArffDirectory(String directory) {
-		if (!(originalClassifier.getClass().getName().equals(EfficientNaiveBayes.class.getName()))) {
-			throw new IllegalArgumentException("Setting arff directory only allowed when classifier is EfficientNaiveBayes!");
+		if (!(originalClassifier.getClass().getName().equals(EfficientNaiveBayes.class.getName()))
+				&& !(originalClassifier instanceof CountingNaiveBayes)) {
+			throw new IllegalArgumentException("Setting arff directory only allowed when classifier is EfficientNaiveBayes or CountingNaiveBayes!");
 		}
-		if (new File(directory).isDirectory()) {
+		if (new File(directory).exists()) {
 			arffDirectory = directory;
 		} else {
-			throw new IllegalArgumentException("Provided directory is no directory");
+			throw new IllegalArgumentException("Provided directory does not exist");
 		}
 	}
+
+	/**
+	 * Enables training one model per target lemma instead of one global model.
+	 * Not used when loading instances one after another from an arff directory.
+	 *
+	 * @param partitionByLemma
+	 *            whether the data should be partitioned by lemma
+	 */
+	public void setPartitionByLemma(boolean partitionByLemma) {
+		this.partitionByLemma = partitionByLemma;
+	}
+
+	/**
+	 * Enables answering lemmas with only one observed sense by a lookup table.
+	 * Their instances are excluded from the model. Not used when loading
+	 * instances one after another from an arff directory.
+	 *
+	 * @param monosemousLookup
+	 *            whether monosemous lemmas should be looked up
+	 */
+	public void setMonosemousLookup(boolean monosemousLookup) {
+		this.monosemousLookup = monosemousLookup;
+	}
 }
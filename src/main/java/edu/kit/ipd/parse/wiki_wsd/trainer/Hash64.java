@@ -0,0 +1,74 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+/**
+ * 64-bit FNV-1a hashing of texts with the finalizer of MurmurHash3 for a good
+ * distribution of the bits. Used for fingerprints, where collisions are
+ * unlikely enough to be ignored.
+ */
+public final class Hash64 {
+	private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long PRIME = 0x100000001b3L;
+
+	private long hash = Hash64.OFFSET_BASIS;
+
+	/**
+	 * Hashes the text
+	 *
+	 * @param text
+	 *            the text
+	 * @return 64-bit hash
+	 */
+	public static long hash(CharSequence text) {
+		return new Hash64().add(text).get();
+	}
+
+	/**
+	 * Adds the characters of the text to the hash
+	 *
+	 * @param text
+	 *            the text
+	 * @return this
+	 */
+	public Hash64 add(CharSequence text) {
+		for (int i = 0; i < text.length(); i++) {
+			add(text.charAt(i));
+		}
+		return this;
+	}
+
+	/**
+	 * Adds one character to the hash
+	 *
+	 * @param c
+	 *            the character
+	 * @return this
+	 */
+	public Hash64 add(char c) {
+		hash = (hash ^ (c & 0xFF)) * Hash64.PRIME;
+		hash = (hash ^ (c >>> 8)) * Hash64.PRIME;
+		return this;
+	}
+
+	/**
+	 * @return the hash of all added characters
+	 */
+	public long get() {
+		return Hash64.mix(hash);
+	}
+
+	/**
+	 * Finalizer of MurmurHash3
+	 *
+	 * @param key
+	 *            value to mix
+	 * @return mixed value
+	 */
+	public static long mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+}
@@ -0,0 +1,89 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.util.logging.Logger;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Merges instances with the same feature vector (sense, lemma and all context
+ * attributes) into one instance, whose weight is the sum of the weights of the
+ * merged instances. As Naive Bayes only uses the weighted counts, the resulting
+ * model is the same, while the amount of rows (and memory, arff size and
+ * training time) drops.
+ *
+ * Vectors are hashed into a primitive map from the 64-bit hash to the last
+ * kept row with that hash. Kept rows with equal hash are chained, so on a
+ * (very unlikely) collision of different vectors each chain entry is compared
+ * value by value and later duplicates of every vector are still merged. Kept
+ * rows are moved forward with {@link Instances#swap(int, int)}, which does not
+ * copy them.
+ */
+public class InstanceCollapser {
+	private static final Logger logger = Logger.getLogger(InstanceCollapser.class.getName());
+
+	private InstanceCollapser() {
+	}
+
+	/**
+	 * Collapses duplicate instances in place. The order of the first
+	 * occurrences is kept.
+	 *
+	 * @param instances
+	 *            instances to collapse
+	 * @return the collapsed instances (same object as provided)
+	 */
+	public static Instances collapse(Instances instances) {
+		int size = instances.size();
+		if (size < 2) {
+			return instances;
+		}
+		LongIntHashMap lastRows = new LongIntHashMap(size);
+		// previous kept row with the same hash, -1 at the end of a chain
+		int[] previousRows = new int[size];
+		int write = 0;
+		for (int read = 0; read < size; read++) {
+			Instance instance = instances.get(read);
+			long hash = InstanceCollapser.hash(instance);
+			int last = lastRows.get(hash, -1);
+			int row = last;
+			while ((row >= 0) && !InstanceCollapser.equalValues(instances.get(row), instance)) {
+				row = previousRows[row];
+			}
+			if (row >= 0) {
+				Instance keptInstance = instances.get(row);
+				keptInstance.setWeight(keptInstance.weight() + instance.weight());
+				continue;
+			}
+			previousRows[write] = last;
+			lastRows.put(hash, write);
+			if (write != read) {
+				instances.swap(write, read);
+			}
+			write++;
+		}
+		for (int i = size - 1; i >= write; i--) {
+			instances.remove(i);
+		}
+		InstanceCollapser.logger.info("Collapsed " + size + " instances into " + write + " weighted instances.");
+		return instances;
+	}
+
+	private static long hash(Instance instance) {
+		long hash = 0x9E3779B97F4A7C15L;
+		for (int a = 0; a < instance.numAttributes(); a++) {
+			// missing values are NaN, doubleToLongBits maps all of them to the same bits
+			hash = Hash64.mix(hash ^ Double.doubleToLongBits(instance.value(a)));
+		}
+		return hash;
+	}
+
+	private static boolean equalValues(Instance first, Instance second) {
+		for (int a = 0; a < first.numAttributes(); a++) {
+			if (Double.doubleToLongBits(first.value(a)) != Double.doubleToLongBits(second.value(a))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,231 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Pruning stage that removes rare senses and rare attribute values from the
+ * training data before the classifier is built. Works in linear time: one pass
+ * counts senses, (lemma, sense)-pairs and attribute values into primitive
+ * count maps, a second pass compacts the instances in place.
+ *
+ * Works with string and nominal attributes alike, as both store the index of
+ * the value within the attribute.
+ *
+ * An instance counts as its weight divided by the base weight of a single
+ * instance, so an instance that was merged from duplicates counts as often as
+ * it was merged.
+ */
+public class InstancePruner {
+	private static final Logger logger = Logger.getLogger(InstancePruner.class.getName());
+	static final int SENSE_INDEX = 0;
+	static final int LEMMA_INDEX = 1;
+
+	private final int minSenseCount;
+	private final int minValueCount;
+	private final int topSensesPerLemma;
+	private final double baseWeight;
+
+	/**
+	 * Creates a pruner, that counts each instance with its weight.
+	 *
+	 * @param minSenseCount
+	 *            minimum amount of instances a sense needs to be kept. Values
+	 *            smaller than 2 disable this.
+	 * @param minValueCount
+	 *            minimum amount of occurrences of an attribute value. Rarer values
+	 *            are set to missing. Values smaller than 2 disable this.
+	 * @param topSensesPerLemma
+	 *            only keep the most frequent senses per lemma. Values smaller than
+	 *            1 disable this.
+	 */
+	public InstancePruner(int minSenseCount, int minValueCount, int topSensesPerLemma) {
+		this(minSenseCount, minValueCount, topSensesPerLemma, 1);
+	}
+
+	/**
+	 * Creates a pruner.
+	 *
+	 * @param minSenseCount
+	 *            minimum amount of instances a sense needs to be kept. Values
+	 *            smaller than 2 disable this.
+	 * @param minValueCount
+	 *            minimum amount of occurrences of an attribute value. Rarer values
+	 *            are set to missing. Values smaller than 2 disable this.
+	 * @param topSensesPerLemma
+	 *            only keep the most frequent senses per lemma. Values smaller than
+	 *            1 disable this.
+	 * @param baseWeight
+	 *            weight of a single (not merged) instance
+	 */
+	public InstancePruner(int minSenseCount, int minValueCount, int topSensesPerLemma, double baseWeight) {
+		if (baseWeight <= 0) {
+			throw new IllegalArgumentException("Base weight must be positive!");
+		}
+		this.minSenseCount = minSenseCount;
+		this.minValueCount = minValueCount;
+		this.topSensesPerLemma = topSensesPerLemma;
+		this.baseWeight = baseWeight;
+	}
+
+	/**
+	 * Returns true, if at least one of the thresholds is active
+	 *
+	 * @return true, if pruning would change anything
+	 */
+	public boolean isActive() {
+		return (minSenseCount > 1) || (minValueCount > 1) || (topSensesPerLemma > 0);
+	}
+
+	/**
+	 * Prunes the provided instances in place.
+	 *
+	 * @param instances
+	 *            instances that should be pruned
+	 * @return the pruned instances (same object as provided)
+	 */
+	public Instances prune(Instances instances) {
+		if (!isActive() || instances.isEmpty()) {
+			return instances;
+		}
+		int numAttributes = instances.numAttributes();
+		double[] senseCounts = new double[instances.attribute(SENSE_INDEX).numValues()];
+		double[][] valueCounts = new double[numAttributes][];
+		if (minValueCount > 1) {
+			for (int a = 0; a < numAttributes; a++) {
+				if (a != SENSE_INDEX) {
+					valueCounts[a] = new double[instances.attribute(a).numValues()];
+				}
+			}
+		}
+		LongDoubleHashMap pairCounts = (topSensesPerLemma > 0) ? new LongDoubleHashMap() : null;
+
+		// first pass: counting
+		for (Instance instance : instances) {
+			if (instance.isMissing(SENSE_INDEX)) {
+				continue;
+			}
+			int sense = (int) instance.value(SENSE_INDEX);
+			double count = instance.weight() / baseWeight;
+			senseCounts[sense] += count;
+			if ((pairCounts != null) && !instance.isMissing(LEMMA_INDEX)) {
+				pairCounts.addTo(LongIntHashMap.pack((int) instance.value(LEMMA_INDEX), sense), count);
+			}
+			if (minValueCount > 1) {
+				for (int a = 0; a < numAttributes; a++) {
+					if ((valueCounts[a] != null) && !instance.isMissing(a)) {
+						valueCounts[a][(int) instance.value(a)] += count;
+					}
+				}
+			}
+		}
+
+		boolean[] keepSense = new boolean[senseCounts.length];
+		for (int s = 0; s < senseCounts.length; s++) {
+			keepSense[s] = senseCounts[s] >= Math.max(1, minSenseCount);
+		}
+		LongIntHashMap allowedPairs = (pairCounts != null) ? selectTopSenses(pairCounts, keepSense) : null;
+
+		// second pass: compaction
+		int write = 0;
+		int size = instances.size();
+		for (int read = 0; read < size; read++) {
+			Instance instance = instances.get(read);
+			if (!instance.isMissing(SENSE_INDEX)) {
+				int sense = (int) instance.value(SENSE_INDEX);
+				if (!keepSense[sense]) {
+					continue;
+				}
+				if ((allowedPairs != null) && !instance.isMissing(LEMMA_INDEX)
+						&& !allowedPairs.containsKey(LongIntHashMap.pack((int) instance.value(LEMMA_INDEX), sense))) {
+					continue;
+				}
+			}
+			if (minValueCount > 1) {
+				for (int a = 0; a < numAttributes; a++) {
+					if ((valueCounts[a] != null) && !instance.isMissing(a) && (valueCounts[a][(int) instance.value(a)] < minValueCount)) {
+						instance.setMissing(a);
+					}
+				}
+			}
+			if (write != read) {
+				instances.set(write, instance);
+			}
+			write++;
+		}
+		for (int i = size - 1; i >= write; i--) {
+			instances.remove(i);
+		}
+		InstancePruner.logger.info("Pruning removed " + (size - write) + " of " + size + " instances.");
+		return instances;
+	}
+
+	/**
+	 * Selects the most frequent senses for each lemma. Ties are broken by the
+	 * sense index, so the result is deterministic.
+	 *
+	 * @param pairCounts
+	 *            counts of (lemma, sense)-pairs
+	 * @param keepSense
+	 *            senses that survived the sense count threshold
+	 * @return set of allowed (lemma, sense)-pairs
+	 */
+	private LongIntHashMap selectTopSenses(LongDoubleHashMap pairCounts, boolean[] keepSense) {
+		// sort all pairs by lemma, then by descending count
+		long[] entries = new long[pairCounts.size()];
+		double[] counts = new double[pairCounts.size()];
+		int[] position = { 0 };
+		pairCounts.forEach((key, count) -> {
+			entries[position[0]] = key;
+			counts[position[0]] = count;
+			position[0]++;
+		});
+		Integer[] order = new Integer[entries.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (o1, o2) -> {
+			int lemmaCompare = Integer.compare(LongIntHashMap.high(entries[o1]), LongIntHashMap.high(entries[o2]));
+			if (lemmaCompare != 0) {
+				return lemmaCompare;
+			}
+			int countCompare = Double.compare(counts[o2], counts[o1]);
+			return (countCompare != 0) ? countCompare : Integer.compare(LongIntHashMap.low(entries[o1]), LongIntHashMap.low(entries[o2]));
+		});
+
+		LongIntHashMap allowed = new LongIntHashMap(entries.length);
+		int currentLemma = -1;
+		int taken = 0;
+		for (Integer index : order) {
+			long key = entries[index];
+			if (LongIntHashMap.high(key) != currentLemma) {
+				currentLemma = LongIntHashMap.high(key);
+				taken = 0;
+			}
+			if (keepSense[LongIntHashMap.low(key)] && (taken < topSensesPerLemma)) {
+				allowed.put(key, 1);
+				taken++;
+			}
+		}
+		return allowed;
+	}
+
+	public int getMinSenseCount() {
+		return minSenseCount;
+	}
+
+	public int getMinValueCount() {
+		return minValueCount;
+	}
+
+	public int getTopSensesPerLemma() {
+		return topSensesPerLemma;
+	}
+
+	public double getBaseWeight() {
+		return baseWeight;
+	}
+}
@@ -0,0 +1,312 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * On-disk layout of arff-shards, that are partitioned by the target lemma
+ * (attribute 1) into a fixed amount of hash buckets. Shards are named
+ * <code>lemma-&lt;bucket&gt;-&lt;counter&gt;.arff.gz</code> and lie flat in
+ * the arff directory, so loaders that read the whole directory still work. The
+ * index file <code>lemma-buckets.index</code> lists every written lemma with
+ * its bucket and amount of instances, so tools only need to read the shards of
+ * the buckets of the lemmas they are interested in. A layout that is continued
+ * numbers its new shards after the highest existing counter.
+ *
+ * Not thread-safe.
+ */
+public class LemmaBucketLayout {
+	private static final Logger logger = Logger.getLogger(LemmaBucketLayout.class.getName());
+	static final int LEMMA_INDEX = 1;
+	public static final String INDEX_FILE = "lemma-buckets.index";
+	private static final String SHARD_PREFIX = "lemma-";
+	private static final String HEADER_PREFIX = "# lemma buckets: ";
+
+	private final File directory;
+	private final int numBuckets;
+	// lemma -> amount of written instances
+	private final Map<String, Long> lemmaCounts = new TreeMap<>();
+
+	/**
+	 * Creates the layout
+	 *
+	 * @param directory
+	 *            the arff directory
+	 * @param numBuckets
+	 *            amount of buckets
+	 */
+	public LemmaBucketLayout(File directory, int numBuckets) {
+		if (numBuckets < 1) {
+			throw new IllegalArgumentException("Amount of buckets must be positive!");
+		}
+		this.directory = directory;
+		this.numBuckets = numBuckets;
+	}
+
+	/**
+	 * Loads the layout of the directory from its index file
+	 *
+	 * @param directory
+	 *            the arff directory
+	 * @return the layout
+	 * @throws IOException
+	 *             if there is no valid index file
+	 */
+	public static LemmaBucketLayout load(File directory) throws IOException {
+		File index = new File(directory, LemmaBucketLayout.INDEX_FILE);
+		try (BufferedReader reader = Files.newBufferedReader(index.toPath(), StandardCharsets.UTF_8)) {
+			String header = reader.readLine();
+			if ((header == null) || !header.startsWith(LemmaBucketLayout.HEADER_PREFIX)) {
+				throw new IOException("Invalid lemma bucket index: " + index);
+			}
+			LemmaBucketLayout layout = new LemmaBucketLayout(directory,
+					Integer.parseInt(header.substring(LemmaBucketLayout.HEADER_PREFIX.length()).trim()));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split("\t");
+				if (parts.length == 3) {
+					layout.lemmaCounts.put(parts[0], Long.parseLong(parts[2]));
+				}
+			}
+			return layout;
+		}
+	}
+
+	/**
+	 * Checks whether the directory has a lemma bucket index
+	 *
+	 * @param directory
+	 *            the arff directory
+	 * @return <code>true</code>, if there is an index
+	 */
+	public static boolean exists(File directory) {
+		return new File(directory, LemmaBucketLayout.INDEX_FILE).isFile();
+	}
+
+	/**
+	 * Returns the bucket of the lemma
+	 *
+	 * @param lemma
+	 *            the lemma
+	 * @return the bucket
+	 */
+	public int bucketOf(String lemma) {
+		return (int) Math.floorMod(Hash64.hash(lemma), (long) numBuckets);
+	}
+
+	/**
+	 * Reorders the instances in place, so that the instances of each bucket are
+	 * consecutive. The order within a bucket is kept. Instances without lemma
+	 * are put into bucket 0. The rows are moved with
+	 * {@link Instances#swap(int, int)}, which does not copy them.
+	 *
+	 * @param instances
+	 *            the instances
+	 * @return offsets of the buckets: the instances of bucket b are within
+	 *         [offsets[b], offsets[b + 1])
+	 */
+	public int[] partition(Instances instances) {
+		int size = instances.size();
+		int[] buckets = new int[size];
+		int[] offsets = new int[numBuckets + 1];
+		for (int i = 0; i < size; i++) {
+			Instance instance = instances.get(i);
+			buckets[i] = instance.isMissing(LEMMA_INDEX) ? 0 : bucketOf(instance.stringValue(LEMMA_INDEX));
+			offsets[buckets[i] + 1]++;
+		}
+		for (int b = 0; b < numBuckets; b++) {
+			offsets[b + 1] += offsets[b];
+		}
+		// target row of each row
+		int[] targets = new int[size];
+		int[] next = offsets.clone();
+		for (int i = 0; i < size; i++) {
+			targets[i] = next[buckets[i]]++;
+		}
+		// follow the cycles of the permutation, each swap puts one row in place
+		for (int i = 0; i < size; i++) {
+			while (targets[i] != i) {
+				int target = targets[i];
+				instances.swap(i, target);
+				targets[i] = targets[target];
+				targets[target] = target;
+			}
+		}
+		return offsets;
+	}
+
+	/**
+	 * Counts the lemmas of the instances for the index
+	 *
+	 * @param instances
+	 *            written instances
+	 * @param from
+	 *            index of the first instance
+	 * @param to
+	 *            index after the last instance
+	 */
+	public void record(Instances instances, int from, int to) {
+		for (int i = from; i < to; i++) {
+			Instance instance = instances.get(i);
+			if (!instance.isMissing(LEMMA_INDEX)) {
+				lemmaCounts.merge(instance.stringValue(LEMMA_INDEX), 1L, Long::sum);
+			}
+		}
+	}
+
+	/**
+	 * Returns the name of a shard
+	 *
+	 * @param bucket
+	 *            the bucket
+	 * @param counter
+	 *            counter of the shard within the bucket
+	 * @param extension
+	 *            file extension
+	 * @return the shard file
+	 */
+	public File shardFile(int bucket, int counter, String extension) {
+		return new File(directory, LemmaBucketLayout.SHARD_PREFIX + bucket + "-" + counter + extension);
+	}
+
+	/**
+	 * Returns the shards that contain the instances of the lemmas
+	 *
+	 * @param lemmas
+	 *            the lemmas
+	 * @return the shard files
+	 */
+	public List<File> shardsFor(Collection<String> lemmas) {
+		Set<Integer> buckets = new TreeSet<>();
+		for (String lemma : lemmas) {
+			buckets.add(bucketOf(lemma));
+		}
+		List<File> shards = new ArrayList<>();
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return shards;
+		}
+		for (File file : files) {
+			int[] shard = LemmaBucketLayout.parseShardName(file.getName());
+			if ((shard != null) && buckets.contains(shard[0])) {
+				shards.add(file);
+			}
+		}
+		shards.sort(null);
+		return shards;
+	}
+
+	/**
+	 * Parses the name of a shard
+	 *
+	 * @param name
+	 *            the file name
+	 * @return bucket and counter of the shard or <code>null</code>, if it is no
+	 *         shard
+	 */
+	private static int[] parseShardName(String name) {
+		if (!name.startsWith(LemmaBucketLayout.SHARD_PREFIX)) {
+			return null;
+		}
+		int bucketEnd = name.indexOf('-', LemmaBucketLayout.SHARD_PREFIX.length());
+		int counterEnd = name.indexOf('.', bucketEnd + 1);
+		if ((bucketEnd < 0) || (counterEnd < 0)) {
+			return null;
+		}
+		try {
+			return new int[] { Integer.parseInt(name.substring(LemmaBucketLayout.SHARD_PREFIX.length(), bucketEnd)),
+					Integer.parseInt(name.substring(bucketEnd + 1, counterEnd)) };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the highest counter of the shards in the directory, so that new
+	 * shards continue after it instead of overwriting existing ones
+	 *
+	 * @param directory
+	 *            the arff directory
+	 * @return the highest counter or -1, if there are no shards
+	 */
+	public static int highestShardCounter(File directory) {
+		int highest = -1;
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				int[] shard = LemmaBucketLayout.parseShardName(file.getName());
+				if (shard != null) {
+					highest = Math.max(highest, shard[1]);
+				}
+			}
+		}
+		return highest;
+	}
+
+	/**
+	 * Removes the instances of other lemmas in place, as a bucket contains
+	 * several lemmas. The kept rows are moved without copying them.
+	 *
+	 * @param instances
+	 *            instances of the buckets
+	 * @param lemmas
+	 *            the lemmas to keep
+	 * @return the instances (same object as provided)
+	 */
+	public static Instances retainLemmas(Instances instances, Set<String> lemmas) {
+		int write = 0;
+		int size = instances.size();
+		for (int read = 0; read < size; read++) {
+			Instance instance = instances.get(read);
+			if (instance.isMissing(LEMMA_INDEX) || !lemmas.contains(instance.stringValue(LEMMA_INDEX))) {
+				continue;
+			}
+			if (write != read) {
+				instances.swap(write, read);
+			}
+			write++;
+		}
+		for (int i = size - 1; i >= write; i--) {
+			instances.remove(i);
+		}
+		return instances;
+	}
+
+	/**
+	 * Writes the index file
+	 *
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void saveIndex() throws IOException {
+		File index = new File(directory, LemmaBucketLayout.INDEX_FILE);
+		try (BufferedWriter writer = Files.newBufferedWriter(index.toPath(), StandardCharsets.UTF_8)) {
+			writer.write(LemmaBucketLayout.HEADER_PREFIX + numBuckets);
+			writer.newLine();
+			for (Map.Entry<String, Long> entry : lemmaCounts.entrySet()) {
+				writer.write(entry.getKey() + '\t' + bucketOf(entry.getKey()) + '\t' + entry.getValue());
+				writer.newLine();
+			}
+		}
+		LemmaBucketLayout.logger.info("Wrote index of " + lemmaCounts.size() + " lemmas in " + numBuckets + " buckets.");
+	}
+
+	public int getNumBuckets() {
+		return numBuckets;
+	}
+}
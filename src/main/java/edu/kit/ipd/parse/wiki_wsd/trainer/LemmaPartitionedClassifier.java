@@ -0,0 +1,233 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.Capabilities;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Model bundle that partitions the training data by the target lemma (attribute
+ * 1) and trains one small classifier per lemma. Each partition gets its own
+ * header that only contains the senses and attribute values seen together with
+ * the lemma, so the partition models are small and only score the senses of
+ * their lemma. Partitions are trained in parallel in the
+ * {@link StageScheduler.Stage#TRAIN} stage.
+ *
+ * The bundle itself is a classifier that works on the (nominal) instances of
+ * the whole data set. It routes each instance to the model of its lemma.
+ * Lemmas with only one sense need no model. Unseen lemmas get the prior class
+ * distribution of the whole data set.
+ *
+ * The bundle is saved with the serialization of weka, which the loader of the
+ * ClassifierService cannot read, as it only reads the global model. It is
+ * therefore saved with the suffix <code>.bundle</code> instead of
+ * <code>.classifer</code>. To serve it, read it with
+ * {@link weka.core.SerializationHelper#read(String)} and pass it to the
+ * constructor of the ClassifierService together with the filter.
+ */
+public class LemmaPartitionedClassifier extends AbstractClassifier {
+
+	@Serial
+	private static final long serialVersionUID = 6905296637361541316L;
+	private static final Logger logger = Logger.getLogger(LemmaPartitionedClassifier.class.getName());
+	private static final int LEMMA_INDEX = 1;
+
+	private final Classifier template;
+
+	private int classIndex;
+	private int numClasses;
+	// index: lemma value, value: partition or -1
+	private int[] lemmaToPartition;
+	private Classifier[] models;
+	private Instances[] headers;
+	// [partition][attribute] sorted values of the whole data set; the position
+	// within the array is the value within the partition
+	private int[][][] partitionValues;
+	private double[] classPriors;
+
+	/**
+	 * Creates a new bundle.
+	 *
+	 * @param template
+	 *            classifier that gets copied for each partition
+	 */
+	public LemmaPartitionedClassifier(Classifier template) {
+		this.template = template;
+	}
+
+	@Override
+	public void buildClassifier(Instances data) throws Exception {
+		classIndex = data.classIndex();
+		numClasses = data.numClasses();
+		int numLemmas = data.attribute(LEMMA_INDEX).numValues();
+
+		// assign partitions and collect the rows of each partition (CSR)
+		lemmaToPartition = new int[numLemmas];
+		Arrays.fill(lemmaToPartition, -1);
+		int[] rowsPerLemma = new int[numLemmas];
+		double[] classCounts = new double[numClasses];
+		Arrays.fill(classCounts, 1.);
+		int numPartitions = 0;
+		for (Instance instance : data) {
+			if (instance.classIsMissing()) {
+				continue;
+			}
+			classCounts[(int) instance.classValue()] += instance.weight();
+			if (instance.isMissing(LEMMA_INDEX)) {
+				continue;
+			}
+			int lemma = (int) instance.value(LEMMA_INDEX);
+			if (rowsPerLemma[lemma]++ == 0) {
+				lemmaToPartition[lemma] = numPartitions++;
+			}
+		}
+		classPriors = classCounts;
+		Utils.normalize(classPriors);
+
+		int[] offsets = new int[numPartitions + 1];
+		for (int lemma = 0; lemma < numLemmas; lemma++) {
+			if (lemmaToPartition[lemma] >= 0) {
+				offsets[lemmaToPartition[lemma] + 1] = rowsPerLemma[lemma];
+			}
+		}
+		for (int p = 0; p < numPartitions; p++) {
+			offsets[p + 1] += offsets[p];
+		}
+		int[] rows = new int[offsets[numPartitions]];
+		int[] fill = Arrays.copyOf(offsets, numPartitions);
+		for (int i = 0; i < data.size(); i++) {
+			Instance instance = data.get(i);
+			if (!instance.classIsMissing() && !instance.isMissing(LEMMA_INDEX)) {
+				rows[fill[lemmaToPartition[(int) instance.value(LEMMA_INDEX)]]++] = i;
+			}
+		}
+
+		models = new Classifier[numPartitions];
+		headers = new Instances[numPartitions];
+		partitionValues = new int[numPartitions][][];
+
+		// train the partitions, biggest first for better load balancing
+		Integer[] order = new Integer[numPartitions];
+		for (int p = 0; p < numPartitions; p++) {
+			order[p] = p;
+		}
+		Arrays.sort(order, (p1, p2) -> Integer.compare(offsets[p2 + 1] - offsets[p2], offsets[p1 + 1] - offsets[p1]));
+		List<Callable<Void>> tasks = new ArrayList<>(numPartitions);
+		for (int p : order) {
+			tasks.add(() -> {
+				trainPartition(data, p, rows, offsets[p], offsets[p + 1]);
+				return null;
+			});
+		}
+		StageScheduler.get().invokeAll(StageScheduler.Stage.TRAIN, tasks);
+		LemmaPartitionedClassifier.logger.info("Trained " + numPartitions + " lemma partitions.");
+	}
+
+	private void trainPartition(Instances data, int partition, int[] rows, int from, int to) throws Exception {
+		int numAttributes = data.numAttributes();
+		// collect the values used within this partition
+		int[][] values = new int[numAttributes][];
+		for (int a = 0; a < numAttributes; a++) {
+			int[] used = new int[to - from];
+			int count = 0;
+			for (int r = from; r < to; r++) {
+				Instance instance = data.get(rows[r]);
+				if (!instance.isMissing(a)) {
+					used[count++] = (int) instance.value(a);
+				}
+			}
+			values[a] = Arrays.stream(used, 0, count).sorted().distinct().toArray();
+		}
+
+		ArrayList<Attribute> attributes = new ArrayList<>(numAttributes);
+		for (int a = 0; a < numAttributes; a++) {
+			Attribute attribute = data.attribute(a);
+			List<String> names = new ArrayList<>(values[a].length);
+			for (int value : values[a]) {
+				names.add(attribute.value(value));
+			}
+			attributes.add(new Attribute(attribute.name(), names));
+		}
+		Instances partitionData = new Instances(data.relationName() + "-" + partition, attributes, to - from);
+		for (int a = 0; a < numAttributes; a++) {
+			if (data.attribute(a).weight() != 1.) {
+				partitionData.setAttributeWeight(a, data.attribute(a).weight());
+			}
+		}
+		partitionData.setClassIndex(classIndex);
+		partitionValues[partition] = values;
+		headers[partition] = new Instances(partitionData, 0);
+
+		if (values[classIndex].length <= 1) {
+			// only one sense, no model needed
+			return;
+		}
+		for (int r = from; r < to; r++) {
+			Instance instance = data.get(rows[r]);
+			partitionData.add(toPartition(instance, partition));
+		}
+		Classifier model = AbstractClassifier.makeCopy(template);
+		model.buildClassifier(partitionData);
+		models[partition] = model;
+	}
+
+	private Instance toPartition(Instance instance, int partition) {
+		int[][] values = partitionValues[partition];
+		double[] local = new double[values.length];
+		for (int a = 0; a < values.length; a++) {
+			int index = instance.isMissing(a) ? -1 : Arrays.binarySearch(values[a], (int) instance.value(a));
+			local[a] = (index < 0) ? Utils.missingValue() : index;
+		}
+		Instance localInstance = new DenseInstance(instance.weight(), local);
+		localInstance.setDataset(headers[partition]);
+		return localInstance;
+	}
+
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		int partition = -1;
+		if (!instance.isMissing(LEMMA_INDEX)) {
+			int lemma = (int) instance.value(LEMMA_INDEX);
+			partition = (lemma < lemmaToPartition.length) ? lemmaToPartition[lemma] : -1;
+		}
+		if (partition < 0) {
+			return classPriors.clone();
+		}
+		int[] senses = partitionValues[partition][classIndex];
+		double[] distribution = new double[numClasses];
+		if (models[partition] == null) {
+			distribution[senses[0]] = 1.;
+			return distribution;
+		}
+		double[] local = models[partition].distributionForInstance(toPartition(instance, partition));
+		for (int i = 0; i < local.length; i++) {
+			distribution[senses[i]] = local[i];
+		}
+		return distribution;
+	}
+
+	@Override
+	public Capabilities getCapabilities() {
+		return template.getCapabilities();
+	}
+
+	/**
+	 * Returns the amount of lemma partitions
+	 *
+	 * @return the amount of partitions
+	 */
+	public int numPartitions() {
+		return (models == null) ? 0 : models.length;
+	}
+}
@@ -0,0 +1,222 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Bounds the work per input line. Lines longer than the length limit are split
+ * at sentence boundaries (or whitespace) outside of links. Each line gets a
+ * time budget; a watchdog in the {@link StageScheduler.Stage#TIMER} stage
+ * interrupts the worker once the budget is used up and the worker cancels
+ * cooperatively by checking its interrupt flag (CoreNLP
+ * does so as well). Lines that cannot be split, run out of time or fail are
+ * written to a quarantine file along with diagnostics instead of being dropped
+ * silently.
+ *
+ * Quarantine file format, one line per record, tab separated: reason, length
+ * of the line, elapsed milliseconds, thread, the line.
+ *
+ * Thread-safe.
+ */
+public class LineGuard implements AutoCloseable {
+	private static final Logger logger = Logger.getLogger(LineGuard.class.getName());
+
+	private final int maxLineLength;
+	private final long maxLineMillis;
+	private final BufferedWriter quarantine;
+
+	private final AtomicLong lines = new AtomicLong();
+	private final AtomicLong splitLines = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong quarantined = new AtomicLong();
+
+	/**
+	 * Creates the guard
+	 *
+	 * @param maxLineLength
+	 *            maximum amount of characters per line, longer lines are split.
+	 *            Values smaller than 1 disable splitting.
+	 * @param maxLineMillis
+	 *            time budget per line in milliseconds. Values smaller than 1
+	 *            disable the time limit.
+	 * @param quarantineFile
+	 *            file the offending lines are appended to
+	 * @throws IOException
+	 *             if the quarantine file cannot be opened
+	 */
+	public LineGuard(int maxLineLength, long maxLineMillis, File quarantineFile) throws IOException {
+		this.maxLineLength = maxLineLength;
+		this.maxLineMillis = maxLineMillis;
+		quarantine = Files.newBufferedWriter(quarantineFile.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Splits the line into parts that are not longer than the length limit.
+	 * Parts that cannot be split are quarantined and left out.
+	 *
+	 * @param line
+	 *            the line
+	 * @return the parts of the line
+	 */
+	public List<String> split(String line) {
+		if ((maxLineLength < 1) || (line.length() <= maxLineLength)) {
+			return List.of(line);
+		}
+		splitLines.incrementAndGet();
+		List<String> parts = new ArrayList<>();
+		int start = 0;
+		while ((line.length() - start) > maxLineLength) {
+			int end = LineGuard.findSplitPoint(line, start, start + maxLineLength);
+			if (end < 0) {
+				quarantine("no-split-point", line.substring(start), 0);
+				return parts;
+			}
+			parts.add(line.substring(start, end).trim());
+			start = end;
+		}
+		parts.add(line.substring(start).trim());
+		return parts;
+	}
+
+	// last sentence end (or else whitespace) outside of links within [start, limit]
+	private static int findSplitPoint(String line, int start, int limit) {
+		int sentenceEnd = -1;
+		int whitespace = -1;
+		int linkDepth = 0;
+		for (int i = start; i < limit; i++) {
+			char c = line.charAt(i);
+			if ((c == '[') && line.startsWith("[[", i)) {
+				linkDepth++;
+				i++;
+			} else if ((c == ']') && line.startsWith("]]", i)) {
+				linkDepth = Math.max(0, linkDepth - 1);
+				i++;
+			} else if ((linkDepth == 0) && Character.isWhitespace(c) && (i > start)) {
+				whitespace = i;
+				char previous = line.charAt(i - 1);
+				if ((previous == '.') || (previous == '!') || (previous == '?')) {
+					sentenceEnd = i;
+				}
+			}
+		}
+		return (sentenceEnd > 0) ? sentenceEnd : whitespace;
+	}
+
+	/**
+	 * Processes the line within the time budget. If the budget is used up, the
+	 * current thread gets interrupted and the work has to stop cooperatively.
+	 * A line is quarantined, if its work stopped because of the budget or
+	 * failed. An interrupt that arrives after the work already kept its result
+	 * does not quarantine the line. The interrupt flag is cleared afterwards, so
+	 * the thread can continue with the next line.
+	 *
+	 * @param line
+	 *            the line
+	 * @param work
+	 *            processing of the line, returns <code>false</code> if it stopped
+	 *            because of the budget and discarded its result
+	 * @return <code>true</code>, if the line was processed completely
+	 */
+	public boolean run(String line, BooleanSupplier work) {
+		lines.incrementAndGet();
+		Thread worker = Thread.currentThread();
+		Object lock = new Object();
+		boolean[] done = { false };
+		ScheduledFuture<?> timer = null;
+		if (maxLineMillis > 0) {
+			timer = StageScheduler.get().schedule(() -> {
+				synchronized (lock) {
+					if (!done[0]) {
+						worker.interrupt();
+					}
+				}
+			}, maxLineMillis, TimeUnit.MILLISECONDS);
+		}
+		long start = System.nanoTime();
+		RuntimeException failure = null;
+		boolean completed = false;
+		try {
+			completed = work.getAsBoolean();
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+		boolean interrupted;
+		synchronized (lock) {
+			done[0] = true;
+			interrupted = Thread.interrupted();
+		}
+		if (timer != null) {
+			timer.cancel(false);
+		}
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		// an interrupt after the work kept its result does not discard the line
+		boolean discarded = (failure != null) || !completed;
+		if (discarded && (interrupted || ((failure != null) && (millis >= maxLineMillis) && (maxLineMillis > 0)))) {
+			timedOut.incrementAndGet();
+			quarantine("timeout", line, millis);
+			return false;
+		}
+		if (failure != null) {
+			failed.incrementAndGet();
+			quarantine(failure.getClass().getSimpleName() + ": " + failure.getMessage(), line, millis);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether the processing of the current line should stop
+	 *
+	 * @return <code>true</code>, if the current line ran out of time
+	 */
+	public static boolean isCancelled() {
+		return Thread.currentThread().isInterrupted();
+	}
+
+	private void quarantine(String reason, String line, long millis) {
+		quarantined.incrementAndGet();
+		String record = reason.replace('\t', ' ').replace('\n', ' ') + '\t' + line.length() + '\t' + millis + '\t'
+				+ Thread.currentThread().getName() + '\t' + line.replace('\t', ' ');
+		synchronized (quarantine) {
+			try {
+				quarantine.write(record);
+				quarantine.newLine();
+				quarantine.flush();
+			} catch (IOException e) {
+				LineGuard.logger.warning("Could not quarantine line: " + e.toString());
+			}
+		}
+	}
+
+	/**
+	 * @return summary of the guarded lines
+	 */
+	public String summary() {
+		return "Line guard: " + lines.get() + " lines processed, " + splitLines.get() + " split, " + timedOut.get() + " timed out, "
+				+ failed.get() + " failed, " + quarantined.get() + " quarantined.";
+	}
+
+	public long getQuarantined() {
+		return quarantined.get();
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (quarantine) {
+			quarantine.close();
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import weka.core.Instance;
+
+/**
+ * Log-probabilities of a Naive Bayes model, compiled from
+ * {@link NaiveBayesCounts}, so scoring only adds up values of primitive arrays.
+ *
+ * The weighted log conditional probability of an attribute value splits into a
+ * part that only depends on the class and a part for the observed pairs:
+ * <code>w * log((count + 1) / (total + values))</code> equals
+ * <code>w * log(1 / (total + values)) + w * log(count + 1)</code>. The first
+ * part (the probability of an unseen value) is summed up with the prior into
+ * one dense base score per class. The second part is only non-zero
+ * for observed (value, class)-pairs and is stored per attribute in CSR-layout:
+ * the pairs of value <code>v</code> are at <code>offsets[v]</code> to
+ * <code>offsets[v + 1] - 1</code>, sorted by class.
+ */
+public class LogProbabilityTables implements Serializable {
+
+	@Serial
+	private static final long serialVersionUID = 6028173916542007354L;
+
+	private final int classIndex;
+	private final int numClasses;
+	// [class] log prior + log probabilities of unseen values of all attributes
+	private final double[] base;
+	// [attribute][class] weighted log probability of an unseen value
+	private final double[][] unseen;
+	// [attribute] CSR of the pairs
+	private final int[][] offsets;
+	private final int[][] classes;
+	private final double[][] deltas;
+
+	private LogProbabilityTables(NaiveBayesCounts counts) {
+		classIndex = counts.getClassIndex();
+		numClasses = counts.numClasses();
+		int numAttributes = counts.numAttributes();
+		base = new double[numClasses];
+		unseen = new double[numAttributes][];
+		offsets = new int[numAttributes][];
+		classes = new int[numAttributes][];
+		deltas = new double[numAttributes][];
+		for (int c = 0; c < numClasses; c++) {
+			base[c] = counts.logPrior(c);
+		}
+		for (int a = 0; a < numAttributes; a++) {
+			if (a == classIndex) {
+				continue;
+			}
+			unseen[a] = new double[numClasses];
+			for (int c = 0; c < numClasses; c++) {
+				unseen[a][c] = counts.logUnseen(a, c);
+				base[c] += unseen[a][c];
+			}
+			compilePairs(counts, a);
+		}
+	}
+
+	private void compilePairs(NaiveBayesCounts counts, int attribute) {
+		ValueCountStore pairs = counts.getValueCounts(attribute);
+		long[] keys = new long[pairs.size()];
+		int[] size = { 0 };
+		pairs.forEach((key, count) -> {
+			// counts might have been subtracted to zero
+			if (count > 0) {
+				keys[size[0]++] = key;
+			}
+		});
+		// sorting the packed keys sorts by value, then by class
+		Arrays.sort(keys, 0, size[0]);
+		int numValues = counts.numValues(attribute);
+		int[] valueOffsets = new int[numValues + 1];
+		int[] pairClasses = new int[size[0]];
+		double[] pairDeltas = new double[size[0]];
+		double weight = counts.getAttributeWeight(attribute);
+		for (int i = 0; i < size[0]; i++) {
+			valueOffsets[LongIntHashMap.high(keys[i]) + 1]++;
+			pairClasses[i] = LongIntHashMap.low(keys[i]);
+			pairDeltas[i] = weight * Math.log1p(pairs.get(keys[i]));
+		}
+		for (int v = 0; v < numValues; v++) {
+			valueOffsets[v + 1] += valueOffsets[v];
+		}
+		offsets[attribute] = valueOffsets;
+		classes[attribute] = pairClasses;
+		deltas[attribute] = pairDeltas;
+	}
+
+	/**
+	 * Compiles the tables of the counts
+	 *
+	 * @param counts
+	 *            the counts
+	 * @return the tables or <code>null</code>, if the pair counts of an attribute
+	 *         are approximate and cannot be enumerated
+	 */
+	public static LogProbabilityTables compile(NaiveBayesCounts counts) {
+		for (int a = 0; a < counts.numAttributes(); a++) {
+			if ((a != counts.getClassIndex()) && !(counts.getValueCounts(a) instanceof LongDoubleHashMap)) {
+				return null;
+			}
+		}
+		return new LogProbabilityTables(counts);
+	}
+
+	/**
+	 * Computes the log joint probabilities of the instance and all classes
+	 *
+	 * @param instance
+	 *            the (encoded) instance
+	 * @param row
+	 *            one entry per class
+	 */
+	public void logJoints(Instance instance, double[] row) {
+		System.arraycopy(base, 0, row, 0, numClasses);
+		for (int a = 0; a < offsets.length; a++) {
+			if (a == classIndex) {
+				continue;
+			}
+			if (instance.isMissing(a)) {
+				double[] missing = unseen[a];
+				for (int c = 0; c < numClasses; c++) {
+					row[c] -= missing[c];
+				}
+				continue;
+			}
+			int value = (int) instance.value(a);
+			if (value < (offsets[a].length - 1)) {
+				int[] pairClasses = classes[a];
+				double[] pairDeltas = deltas[a];
+				for (int i = offsets[a][value]; i < offsets[a][value + 1]; i++) {
+					row[pairClasses[i]] += pairDeltas[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the log joint probability of the instance and the class
+	 *
+	 * @param instance
+	 *            the (encoded) instance
+	 * @param cls
+	 *            the class
+	 * @return the log joint probability
+	 */
+	public double logJoint(Instance instance, int cls) {
+		double score = base[cls];
+		for (int a = 0; a < offsets.length; a++) {
+			if (a == classIndex) {
+				continue;
+			}
+			if (instance.isMissing(a)) {
+				score -= unseen[a][cls];
+				continue;
+			}
+			int value = (int) instance.value(a);
+			if (value < (offsets[a].length - 1)) {
+				int from = offsets[a][value];
+				int to = offsets[a][value + 1];
+				int position = Arrays.binarySearch(classes[a], from, to, cls);
+				if (position >= 0) {
+					score += deltas[a][position];
+				}
+			}
+		}
+		return score;
+	}
+
+	public int numClasses() {
+		return numClasses;
+	}
+}
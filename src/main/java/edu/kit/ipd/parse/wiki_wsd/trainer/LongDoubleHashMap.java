@@ -0,0 +1,145 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.io.Serial;
+
+/**
+ * Open addressing hash map from primitive <code>long</code> keys to primitive
+ * <code>double</code> values. Used for weighted counts (e.g. pairs of attribute
+ * value and sense packed into one long, see {@link LongIntHashMap#pack(int, int)}).
+ *
+ * Not thread-safe.
+ */
+public class LongDoubleHashMap extends LongKeyHashTable implements ValueCountStore {
+
+	@Serial
+	private static final long serialVersionUID = -7322408826640000321L;
+
+	private double[] values;
+
+	/**
+	 * Callback for iterating over all entries of a {@link LongDoubleHashMap}
+	 */
+	@FunctionalInterface
+	public interface EntryConsumer {
+		void accept(long key, double value);
+	}
+
+	public LongDoubleHashMap() {
+		this(16);
+	}
+
+	/**
+	 * Creates a map that can hold the expected amount of entries without resizing.
+	 *
+	 * @param expectedSize
+	 *            expected amount of entries
+	 */
+	public LongDoubleHashMap(int expectedSize) {
+		super(expectedSize);
+	}
+
+	@Override
+	void allocateValues(int capacity) {
+		values = new double[capacity];
+	}
+
+	@Override
+	void moveValues(int capacity, int[] newSlots) {
+		double[] oldValues = values;
+		values = new double[capacity];
+		for (int i = 0; i < newSlots.length; i++) {
+			if (newSlots[i] >= 0) {
+				values[newSlots[i]] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns the value for the key or the provided default, if the key is absent.
+	 *
+	 * @param key
+	 *            the key
+	 * @param defaultValue
+	 *            value to return if there is no mapping for the key
+	 * @return the value or the default value
+	 */
+	public double get(long key, double defaultValue) {
+		int slot = slot(key);
+		return isUsed(slot) ? values[slot] : defaultValue;
+	}
+
+	@Override
+	public double get(long key) {
+		return get(key, 0.);
+	}
+
+	/**
+	 * Sets the value for the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 */
+	public void put(long key, double value) {
+		int slot = slot(key);
+		if (!isUsed(slot)) {
+			insert(slot, key, value);
+		} else {
+			values[slot] = value;
+		}
+	}
+
+	/**
+	 * Adds delta to the value of the key. Absent keys start at 0.
+	 *
+	 * @param key
+	 *            the key
+	 * @param delta
+	 *            amount to add
+	 * @return the new value
+	 */
+	@Override
+	public double addTo(long key, double delta) {
+		int slot = slot(key);
+		if (!isUsed(slot)) {
+			insert(slot, key, delta);
+			return delta;
+		}
+		values[slot] += delta;
+		return values[slot];
+	}
+
+	private void insert(int slot, long key, double value) {
+		values[slot] = value;
+		insertKey(slot, key);
+	}
+
+	/**
+	 * Calls the consumer for every entry. Order is unspecified.
+	 *
+	 * @param consumer
+	 *            consumer of the entries
+	 */
+	@Override
+	public void forEach(EntryConsumer consumer) {
+		for (int i = 0; i < capacity(); i++) {
+			if (isUsed(i)) {
+				consumer.accept(keyAt(i), values[i]);
+			}
+		}
+	}
+
+	@Override
+	public void add(ValueCountStore other, double sign) {
+		if (!(other instanceof LongDoubleHashMap)) {
+			throw new IllegalArgumentException("Approximate counts cannot be added to exact counts!");
+		}
+		other.forEach((key, count) -> addTo(key, sign * count));
+	}
+
+	@Override
+	public LongDoubleHashMap emptyCopy() {
+		return new LongDoubleHashMap();
+	}
+}
@@ -0,0 +1,146 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.io.Serial;
+
+/**
+ * Open addressing hash map from primitive <code>long</code> keys to primitive
+ * <code>int</code> values. Used for counting (e.g. pairs of lemma and sense
+ * packed into one long) without boxing every key and value.
+ *
+ * Not thread-safe.
+ */
+public class LongIntHashMap extends LongKeyHashTable {
+
+	@Serial
+	private static final long serialVersionUID = 4386329163780530514L;
+
+	private int[] values;
+
+	/**
+	 * Callback for iterating over all entries of a {@link LongIntHashMap}
+	 */
+	@FunctionalInterface
+	public interface EntryConsumer {
+		void accept(long key, int value);
+	}
+
+	public LongIntHashMap() {
+		this(16);
+	}
+
+	/**
+	 * Creates a map that can hold the expected amount of entries without resizing.
+	 *
+	 * @param expectedSize
+	 *            expected amount of entries
+	 */
+	public LongIntHashMap(int expectedSize) {
+		super(expectedSize);
+	}
+
+	@Override
+	void allocateValues(int capacity) {
+		values = new int[capacity];
+	}
+
+	@Override
+	void moveValues(int capacity, int[] newSlots) {
+		int[] oldValues = values;
+		values = new int[capacity];
+		for (int i = 0; i < newSlots.length; i++) {
+			if (newSlots[i] >= 0) {
+				values[newSlots[i]] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Packs two non-negative ints into one long key.
+	 *
+	 * @param high
+	 *            value for the upper 32 bits
+	 * @param low
+	 *            value for the lower 32 bits
+	 * @return the packed key
+	 */
+	public static long pack(int high, int low) {
+		return ((long) high << 32) | (low & 0xFFFFFFFFL);
+	}
+
+	public static int high(long key) {
+		return (int) (key >>> 32);
+	}
+
+	public static int low(long key) {
+		return (int) key;
+	}
+
+	/**
+	 * Returns the value for the key or the provided default, if the key is absent.
+	 *
+	 * @param key
+	 *            the key
+	 * @param defaultValue
+	 *            value to return if there is no mapping for the key
+	 * @return the value or the default value
+	 */
+	public int get(long key, int defaultValue) {
+		int slot = slot(key);
+		return isUsed(slot) ? values[slot] : defaultValue;
+	}
+
+	/**
+	 * Sets the value for the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 */
+	public void put(long key, int value) {
+		int slot = slot(key);
+		if (!isUsed(slot)) {
+			insert(slot, key, value);
+		} else {
+			values[slot] = value;
+		}
+	}
+
+	/**
+	 * Adds delta to the value of the key. Absent keys start at 0.
+	 *
+	 * @param key
+	 *            the key
+	 * @param delta
+	 *            amount to add
+	 * @return the new value
+	 */
+	public int addTo(long key, int delta) {
+		int slot = slot(key);
+		if (!isUsed(slot)) {
+			insert(slot, key, delta);
+			return delta;
+		}
+		values[slot] += delta;
+		return values[slot];
+	}
+
+	private void insert(int slot, long key, int value) {
+		values[slot] = value;
+		insertKey(slot, key);
+	}
+
+	/**
+	 * Calls the consumer for every entry. Order is unspecified.
+	 *
+	 * @param consumer
+	 *            consumer of the entries
+	 */
+	public void forEach(EntryConsumer consumer) {
+		for (int i = 0; i < capacity(); i++) {
+			if (isUsed(i)) {
+				consumer.accept(keyAt(i), values[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Open addressing (linear probing) over primitive <code>long</code> keys, the
+ * common part of {@link LongIntHashMap} and {@link LongDoubleHashMap}. The
+ * subclasses keep their values in a primitive array with the same slots as the
+ * keys.
+ *
+ * Not thread-safe.
+ */
+abstract class LongKeyHashTable implements Serializable {
+
+	@Serial
+	private static final long serialVersionUID = -1581137027718230462L;
+	private static final double LOAD_FACTOR = 0.6;
+
+	private long[] keys;
+	private boolean[] used;
+	private int size = 0;
+	private int mask;
+	private int resizeAt;
+
+	/**
+	 * Creates a table that can hold the expected amount of entries without
+	 * resizing.
+	 *
+	 * @param expectedSize
+	 *            expected amount of entries
+	 */
+	LongKeyHashTable(int expectedSize) {
+		int capacity = Integer.highestOneBit((int) Math.max(2, Math.min(1 << 30, Math.ceil(expectedSize / LongKeyHashTable.LOAD_FACTOR))) - 1)
+				<< 1;
+		allocate(capacity);
+		allocateValues(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+		resizeAt = (int) (capacity * LongKeyHashTable.LOAD_FACTOR);
+	}
+
+	/**
+	 * Allocates the values for a capacity
+	 *
+	 * @param capacity
+	 *            amount of slots
+	 */
+	abstract void allocateValues(int capacity);
+
+	/**
+	 * Allocates the values for a new capacity and moves the values of the used
+	 * slots to their new slots
+	 *
+	 * @param capacity
+	 *            amount of slots
+	 * @param newSlots
+	 *            new slot of each old slot, -1 for unused slots
+	 */
+	abstract void moveValues(int capacity, int[] newSlots);
+
+	/**
+	 * Returns the slot of the key, either the used slot of the key or the free
+	 * slot it would be inserted into
+	 *
+	 * @param key
+	 *            the key
+	 * @return the slot
+	 */
+	final int slot(long key) {
+		int slot = (int) Hash64.mix(key) & mask;
+		while (used[slot] && (keys[slot] != key)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	final boolean isUsed(int slot) {
+		return used[slot];
+	}
+
+	final long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	final int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * Marks the free slot as used by the key. The value has to be set before, as
+	 * the table might be resized afterwards.
+	 *
+	 * @param slot
+	 *            free slot from {@link #slot(long)}
+	 * @param key
+	 *            the key
+	 */
+	final void insertKey(int slot, long key) {
+		used[slot] = true;
+		keys[slot] = key;
+		size++;
+		if (size > resizeAt) {
+			rehash();
+		}
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		boolean[] oldUsed = used;
+		int[] newSlots = new int[oldKeys.length];
+		allocate(oldKeys.length << 1);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i]) {
+				int slot = slot(oldKeys[i]);
+				used[slot] = true;
+				keys[slot] = oldKeys[i];
+				newSlots[i] = slot;
+			} else {
+				newSlots[i] = -1;
+			}
+		}
+		moveValues(keys.length, newSlots);
+	}
+
+	public boolean containsKey(long key) {
+		return used[slot(key)];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+}
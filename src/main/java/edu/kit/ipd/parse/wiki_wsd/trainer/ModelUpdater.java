@@ -0,0 +1,167 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.util.logging.Logger;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.filters.Filter;
+
+/**
+ * Updates an existing, serialized model with new training data instead of
+ * training from scratch. New lemmas, senses and attribute values are appended
+ * to the dictionaries of the {@link DictionaryEncoder}, the counts of the model
+ * are updated with the new instances and instances of removed articles can be
+ * subtracted again.
+ *
+ * Extending the dictionaries and subtracting instances is only supported by
+ * the {@link CountingNaiveBayes}. Other updateable classifiers can only be
+ * updated with instances, unseen values are treated as missing then.
+ *
+ * All files of the model are written and read with the serialization of weka,
+ * see {@link #save(Classifier, Filter, Instances, String, String, String)}.
+ */
+public class ModelUpdater {
+	private static final Logger logger = Logger.getLogger(ModelUpdater.class.getName());
+
+	private final Classifier classifier;
+	private final DictionaryEncoder encoder;
+	private final Instances header;
+
+	/**
+	 * Creates the updater
+	 *
+	 * @param classifier
+	 *            the trained classifier
+	 * @param encoder
+	 *            the encoder that was used for the training data
+	 * @param header
+	 *            the (string) header of the training data
+	 */
+	public ModelUpdater(Classifier classifier, DictionaryEncoder encoder, Instances header) {
+		if (!(classifier instanceof UpdateableClassifier)) {
+			throw new IllegalArgumentException("Only updateable classifiers can be updated!");
+		}
+		this.classifier = classifier;
+		this.encoder = encoder;
+		this.header = header;
+	}
+
+	/**
+	 * Loads the files of a saved model
+	 *
+	 * @param classifierFile
+	 *            serialized classifier
+	 * @param filterFile
+	 *            serialized {@link DictionaryEncoder}
+	 * @param headerFile
+	 *            serialized instances header
+	 * @return the updater for the loaded model
+	 * @throws Exception
+	 *             if a file cannot be read or the model cannot be updated
+	 */
+	public static ModelUpdater load(String classifierFile, String filterFile, String headerFile) throws Exception {
+		Object filter = SerializationHelper.read(filterFile);
+		if (!(filter instanceof DictionaryEncoder)) {
+			throw new IllegalArgumentException("Model was not encoded with the DictionaryEncoder!");
+		}
+		return new ModelUpdater((Classifier) SerializationHelper.read(classifierFile), (DictionaryEncoder) filter,
+				(Instances) SerializationHelper.read(headerFile));
+	}
+
+	/**
+	 * Saves the files of a model, so that they can be loaded with
+	 * {@link #load(String, String, String)}
+	 *
+	 * @param classifier
+	 *            the trained classifier
+	 * @param filter
+	 *            the filter that was used for the training data
+	 * @param header
+	 *            the (string) header of the training data, only its attributes
+	 *            are saved
+	 * @param classifierFile
+	 *            file of the serialized classifier
+	 * @param filterFile
+	 *            file of the serialized filter
+	 * @param headerFile
+	 *            file of the serialized instances header
+	 * @throws Exception
+	 *             if a file cannot be written
+	 */
+	public static void save(Classifier classifier, Filter filter, Instances header, String classifierFile, String filterFile,
+			String headerFile) throws Exception {
+		SerializationHelper.write(classifierFile, classifier);
+		SerializationHelper.write(filterFile, filter);
+		SerializationHelper.write(headerFile, new Instances(header, 0));
+	}
+
+	/**
+	 * Saves the updated model, so that it can be loaded with
+	 * {@link #load(String, String, String)}
+	 *
+	 * @param classifierFile
+	 *            file of the serialized classifier
+	 * @param filterFile
+	 *            file of the serialized filter
+	 * @param headerFile
+	 *            file of the serialized instances header
+	 * @throws Exception
+	 *             if a file cannot be written
+	 */
+	public void save(String classifierFile, String filterFile, String headerFile) throws Exception {
+		ModelUpdater.save(classifier, encoder, header, classifierFile, filterFile, headerFile);
+	}
+
+	/**
+	 * Updates the model with the new instances
+	 *
+	 * @param instances
+	 *            new (not encoded) instances
+	 * @throws Exception
+	 *             if the classifier cannot be updated
+	 */
+	public void add(Instances instances) throws Exception {
+		if (classifier instanceof CountingNaiveBayes) {
+			if (encoder.extend(instances)) {
+				((CountingNaiveBayes) classifier).extendHeader(encoder.getHeader());
+			}
+		} else {
+			ModelUpdater.logger.warning("Classifier cannot extend its dictionaries, unseen values will be missing.");
+		}
+		new ChunkedUpdater().update(classifier, instances, encoder::convert);
+		ModelUpdater.logger.info("Updated model with " + instances.size() + " instances.");
+	}
+
+	/**
+	 * Subtracts the instances (e.g. of removed or changed articles) from the model
+	 *
+	 * @param instances
+	 *            (not encoded) instances that were used for training before
+	 */
+	public void remove(Instances instances) {
+		if (!(classifier instanceof CountingNaiveBayes)) {
+			ModelUpdater.logger.warning("Classifier does not support removing instances, skipping " + instances.size() + " instances.");
+			return;
+		}
+		CountingNaiveBayes countingClassifier = (CountingNaiveBayes) classifier;
+		for (Instance instance : instances) {
+			countingClassifier.removeInstance(encoder.convert(instance));
+		}
+		ModelUpdater.logger.info("Removed " + instances.size() + " instances from the model.");
+	}
+
+	public Classifier getClassifier() {
+		return classifier;
+	}
+
+	public DictionaryEncoder getEncoder() {
+		return encoder;
+	}
+
+	public Instances getHeader() {
+		return header;
+	}
+}
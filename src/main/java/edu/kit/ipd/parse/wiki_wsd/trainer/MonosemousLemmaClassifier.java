@@ -0,0 +1,109 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.io.Serial;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.Capabilities;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Answers lemmas that were only observed with one sense by a table lookup.
+ * Their instances are excluded from the training of the wrapped probabilistic
+ * model, which only handles the remaining (polysemous) lemmas. Saved with the
+ * serialization of weka and with the suffix <code>.bundle</code> like the
+ * {@link LemmaPartitionedClassifier}, as the loader of the ClassifierService
+ * cannot read it either.
+ */
+public class MonosemousLemmaClassifier extends AbstractClassifier {
+
+	@Serial
+	private static final long serialVersionUID = 8357412503322181926L;
+	private static final Logger logger = Logger.getLogger(MonosemousLemmaClassifier.class.getName());
+	private static final int LEMMA_INDEX = 1;
+	private static final int UNSEEN = -2;
+	private static final int POLYSEMOUS = -1;
+
+	private final Classifier delegate;
+	private int numClasses;
+	// index: lemma value, value: the only sense of the lemma, or < 0
+	private int[] lemmaToSense;
+
+	/**
+	 * Creates the classifier
+	 *
+	 * @param delegate
+	 *            classifier for all instances with polysemous or unseen lemmas
+	 */
+	public MonosemousLemmaClassifier(Classifier delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void buildClassifier(Instances data) throws Exception {
+		numClasses = data.numClasses();
+		lemmaToSense = new int[data.attribute(LEMMA_INDEX).numValues()];
+		Arrays.fill(lemmaToSense, UNSEEN);
+		for (Instance instance : data) {
+			if (instance.classIsMissing() || instance.isMissing(LEMMA_INDEX)) {
+				continue;
+			}
+			int lemma = (int) instance.value(LEMMA_INDEX);
+			int sense = (int) instance.classValue();
+			if (lemmaToSense[lemma] == UNSEEN) {
+				lemmaToSense[lemma] = sense;
+			} else if (lemmaToSense[lemma] != sense) {
+				lemmaToSense[lemma] = POLYSEMOUS;
+			}
+		}
+
+		// only polysemous lemmas go into the probabilistic model
+		Instances polysemous = new Instances(data, data.size());
+		for (Instance instance : data) {
+			if (monosemousSense(instance) < 0) {
+				polysemous.add(instance);
+			}
+		}
+		long monosemousLemmas = Arrays.stream(lemmaToSense).filter(sense -> sense >= 0).count();
+		MonosemousLemmaClassifier.logger.info("Found " + monosemousLemmas + " monosemous lemmas, excluding " + (data.size() - polysemous.size())
+				+ " of " + data.size() + " instances from the model.");
+		polysemous.compactify();
+		delegate.buildClassifier(polysemous);
+	}
+
+	private int monosemousSense(Instance instance) {
+		if (instance.isMissing(LEMMA_INDEX)) {
+			return POLYSEMOUS;
+		}
+		int lemma = (int) instance.value(LEMMA_INDEX);
+		return (lemma < lemmaToSense.length) ? lemmaToSense[lemma] : UNSEEN;
+	}
+
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		int sense = monosemousSense(instance);
+		if (sense >= 0) {
+			double[] distribution = new double[numClasses];
+			distribution[sense] = 1.;
+			return distribution;
+		}
+		return delegate.distributionForInstance(instance);
+	}
+
+	@Override
+	public Capabilities getCapabilities() {
+		return delegate.getCapabilities();
+	}
+
+	/**
+	 * Returns the classifier for the polysemous lemmas
+	 *
+	 * @return the wrapped classifier
+	 */
+	public Classifier getDelegate() {
+		return delegate;
+	}
+}
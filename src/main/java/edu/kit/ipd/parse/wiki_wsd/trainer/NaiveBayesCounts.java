@@ -0,0 +1,348 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Sufficient statistics of a Naive Bayes classifier over nominal attributes,
+ * kept in primitive arrays and maps. Counts are weighted by the instance
+ * weights and can be added (training, merging) as well as subtracted.
+ *
+ * Probabilities are derived with Laplace-correction, the same way as the
+ * discrete estimators of Weka do: every count starts at 1. Attribute weights
+ * are applied as exponent of the conditional probabilities.
+ *
+ * The pair counts of single attributes can be kept approximately in a
+ * {@link CountMinSketch} with bounded memory (see
+ * {@link #approximate(int, ValueCountStore)}), all other counts stay exact.
+ *
+ * Not thread-safe; use one instance per thread and merge them with
+ * {@link #add(NaiveBayesCounts)}.
+ */
+public class NaiveBayesCounts implements Serializable {
+
+	@Serial
+	private static final long serialVersionUID = 2412875180369577411L;
+
+	private final int classIndex;
+	private final int numAttributes;
+	private int numClasses;
+	private final int[] numValues;
+	private final double[] attributeWeights;
+
+	private double totalWeight = 0;
+	private double[] classWeights;
+	// [attribute][class] weight of instances with a value for the attribute
+	private double[][] attributeTotals;
+	// [attribute] key: (value, class)
+	private final ValueCountStore[] valueCounts;
+
+	/**
+	 * Creates empty counts for the provided (nominal) header
+	 *
+	 * @param header
+	 *            header of the instances that will be counted
+	 */
+	public NaiveBayesCounts(Instances header) {
+		classIndex = header.classIndex();
+		numAttributes = header.numAttributes();
+		numClasses = header.numClasses();
+		numValues = new int[numAttributes];
+		attributeWeights = new double[numAttributes];
+		for (int a = 0; a < numAttributes; a++) {
+			numValues[a] = header.attribute(a).numValues();
+			attributeWeights[a] = header.attribute(a).weight();
+		}
+		valueCounts = new ValueCountStore[numAttributes];
+		allocateCounts();
+		for (int a = 0; a < numAttributes; a++) {
+			if (a != classIndex) {
+				valueCounts[a] = new LongDoubleHashMap();
+			}
+		}
+	}
+
+	private NaiveBayesCounts(NaiveBayesCounts template) {
+		classIndex = template.classIndex;
+		numAttributes = template.numAttributes;
+		numClasses = template.numClasses;
+		numValues = template.numValues.clone();
+		attributeWeights = template.attributeWeights;
+		valueCounts = new ValueCountStore[numAttributes];
+		allocateCounts();
+		for (int a = 0; a < numAttributes; a++) {
+			if (a != classIndex) {
+				valueCounts[a] = template.valueCounts[a].emptyCopy();
+			}
+		}
+	}
+
+	private void allocateCounts() {
+		classWeights = new double[numClasses];
+		attributeTotals = new double[numAttributes][];
+		for (int a = 0; a < numAttributes; a++) {
+			if (a != classIndex) {
+				attributeTotals[a] = new double[numClasses];
+			}
+		}
+	}
+
+	/**
+	 * Keeps the pair counts of the attribute in the provided store instead of an
+	 * exact map, e.g. in a {@link CountMinSketch}. Only possible before anything
+	 * was counted.
+	 *
+	 * @param attribute
+	 *            the attribute, not the class
+	 * @param store
+	 *            empty store for the pair counts
+	 */
+	public void approximate(int attribute, ValueCountStore store) {
+		if (attribute == classIndex) {
+			throw new IllegalArgumentException("The class attribute has no pair counts!");
+		}
+		if (totalWeight != 0) {
+			throw new IllegalStateException("Counts can only be approximated before counting!");
+		}
+		valueCounts[attribute] = store;
+	}
+
+	/**
+	 * Adapts the counts to a header, whose nominal attributes got additional
+	 * values appended (see {@link DictionaryEncoder#extend(Instances)}).
+	 *
+	 * @param header
+	 *            the extended header
+	 */
+	public void extend(Instances header) {
+		int[] extendedNumValues = new int[numAttributes];
+		for (int a = 0; a < numAttributes; a++) {
+			extendedNumValues[a] = header.attribute(a).numValues();
+		}
+		extend(extendedNumValues, header.numClasses());
+	}
+
+	private void extend(int[] extendedNumValues, int extendedNumClasses) {
+		for (int a = 0; a < numAttributes; a++) {
+			numValues[a] = Math.max(numValues[a], extendedNumValues[a]);
+		}
+		if (extendedNumClasses > numClasses) {
+			numClasses = extendedNumClasses;
+			classWeights = Arrays.copyOf(classWeights, numClasses);
+			for (int a = 0; a < numAttributes; a++) {
+				if (a != classIndex) {
+					attributeTotals[a] = Arrays.copyOf(attributeTotals[a], numClasses);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates empty counts with the same layout, e.g. to count a part of the data
+	 * and merge it later with {@link #add(NaiveBayesCounts)}.
+	 *
+	 * @return empty counts
+	 */
+	public NaiveBayesCounts emptyCopy() {
+		return new NaiveBayesCounts(this);
+	}
+
+	/**
+	 * Counts the instance with its weight
+	 *
+	 * @param instance
+	 *            the instance
+	 */
+	public void add(Instance instance) {
+		add(instance, instance.weight());
+	}
+
+	/**
+	 * Counts the instance with the provided weight. A negative weight removes a
+	 * previously counted instance.
+	 *
+	 * @param instance
+	 *            the instance
+	 * @param weight
+	 *            weight to count the instance with
+	 */
+	public void add(Instance instance, double weight) {
+		if (instance.isMissing(classIndex)) {
+			return;
+		}
+		int cls = (int) instance.value(classIndex);
+		totalWeight += weight;
+		classWeights[cls] += weight;
+		for (int a = 0; a < numAttributes; a++) {
+			if ((a == classIndex) || instance.isMissing(a)) {
+				continue;
+			}
+			attributeTotals[a][cls] += weight;
+			valueCounts[a].addTo(LongIntHashMap.pack((int) instance.value(a), cls), weight);
+		}
+	}
+
+	/**
+	 * Adds all counts of the other counts to these counts.
+	 *
+	 * @param other
+	 *            counts of the same header
+	 */
+	public void add(NaiveBayesCounts other) {
+		combine(other, 1.);
+	}
+
+	/**
+	 * Subtracts all counts of the other counts from these counts.
+	 *
+	 * @param other
+	 *            counts of the same header, that were added before
+	 */
+	public void subtract(NaiveBayesCounts other) {
+		combine(other, -1.);
+	}
+
+	private void combine(NaiveBayesCounts other, double sign) {
+		if ((other.numAttributes != numAttributes) || (other.classIndex != classIndex)) {
+			throw new IllegalArgumentException("Counts have a different layout!");
+		}
+		// the other counts might have been extended further, e.g. partial counts of an update
+		extend(other.numValues, other.numClasses);
+		totalWeight += sign * other.totalWeight;
+		for (int c = 0; c < other.numClasses; c++) {
+			classWeights[c] += sign * other.classWeights[c];
+		}
+		for (int a = 0; a < numAttributes; a++) {
+			if (a == classIndex) {
+				continue;
+			}
+			for (int c = 0; c < other.numClasses; c++) {
+				attributeTotals[a][c] += sign * other.attributeTotals[a][c];
+			}
+			valueCounts[a].add(other.valueCounts[a], sign);
+		}
+	}
+
+	/**
+	 * Returns the log of the Laplace-corrected prior probability of the class
+	 *
+	 * @param cls
+	 *            the class
+	 * @return log prior probability
+	 */
+	public double logPrior(int cls) {
+		return Math.log((classWeights[cls] + 1.) / (totalWeight + numClasses));
+	}
+
+	/**
+	 * Returns the log of the Laplace-corrected conditional probability of the
+	 * value given the class, multiplied by the attribute weight.
+	 *
+	 * @param attribute
+	 *            the attribute
+	 * @param value
+	 *            the value of the attribute
+	 * @param cls
+	 *            the class
+	 * @return weighted log probability
+	 */
+	public double logConditional(int attribute, int value, int cls) {
+		double count = valueCounts[attribute].get(LongIntHashMap.pack(value, cls));
+		return attributeWeights[attribute] * Math.log((count + 1.) / (attributeTotals[attribute][cls] + numValues[attribute]));
+	}
+
+	/**
+	 * Returns the log of the Laplace-corrected conditional probability of a value
+	 * of the attribute, that was not observed with the class, multiplied by the
+	 * attribute weight.
+	 *
+	 * @param attribute
+	 *            the attribute
+	 * @param cls
+	 *            the class
+	 * @return weighted log probability of an unseen value
+	 */
+	public double logUnseen(int attribute, int cls) {
+		return -attributeWeights[attribute] * Math.log(attributeTotals[attribute][cls] + numValues[attribute]);
+	}
+
+	/**
+	 * Returns the log of the (unnormalized) joint probability of the instance and
+	 * the class.
+	 *
+	 * @param instance
+	 *            the instance
+	 * @param cls
+	 *            the class
+	 * @return the log joint probability
+	 */
+	public double logJoint(Instance instance, int cls) {
+		double score = logPrior(cls);
+		for (int a = 0; a < numAttributes; a++) {
+			if ((a != classIndex) && !instance.isMissing(a)) {
+				score += logConditional(a, (int) instance.value(a), cls);
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * Returns the counts of the pairs of value of the attribute and class
+	 *
+	 * @param attribute
+	 *            the attribute
+	 * @return store with the packed pairs as keys, see
+	 *         {@link LongIntHashMap#pack(int, int)}
+	 */
+	ValueCountStore getValueCounts(int attribute) {
+		return valueCounts[attribute];
+	}
+
+	/**
+	 * Returns whether the pair counts of an attribute are kept approximately, see
+	 * {@link #approximate(int, ValueCountStore)}. Every copy of approximate
+	 * counts allocates the full memory of their stores.
+	 *
+	 * @return true, if at least one attribute is approximated
+	 */
+	public boolean isApproximate() {
+		for (int a = 0; a < numAttributes; a++) {
+			if ((a != classIndex) && !(valueCounts[a] instanceof LongDoubleHashMap)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public double getAttributeWeight(int attribute) {
+		return attributeWeights[attribute];
+	}
+
+	public double getClassWeight(int cls) {
+		return classWeights[cls];
+	}
+
+	public double getTotalWeight() {
+		return totalWeight;
+	}
+
+	public int getClassIndex() {
+		return classIndex;
+	}
+
+	public int numAttributes() {
+		return numAttributes;
+	}
+
+	public int numClasses() {
+		return numClasses;
+	}
+
+	public int numValues(int attribute) {
+		return numValues[attribute];
+	}
+}
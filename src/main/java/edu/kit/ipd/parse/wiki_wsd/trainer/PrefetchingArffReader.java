@@ -0,0 +1,162 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.function.UnaryOperator;
+import java.util.logging.Logger;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ArffLoader;
+
+/**
+ * Reads the instances of several arff-shards one by one in the background (in
+ * the {@link StageScheduler.Stage#IO} stage) and hands them out in batches. While the consumer processes a batch,
+ * the next batches are parsed, also across the border to the next shard. Only
+ * a small, bounded amount of batches is kept in memory.
+ *
+ * String values of incrementally read instances are only valid until the next
+ * instance is read, so instances are converted (e.g. encoded with a
+ * {@link DictionaryEncoder}) right after reading. Without a converter, the
+ * string values are copied into a header of the batch instead, each batch is
+ * an {@link Instances} of its own then. This allows to extend the
+ * dictionaries by the batch before encoding it.
+ */
+public class PrefetchingArffReader implements AutoCloseable {
+	private static final Logger logger = Logger.getLogger(PrefetchingArffReader.class.getName());
+	private static final List<Instance> END = Collections.emptyList();
+
+	private final List<File> shards;
+	private final UnaryOperator<Instance> converter;
+	private final int batchSize;
+	private final BlockingQueue<List<Instance>> queue;
+	private volatile Exception failure = null;
+	private Future<?> producer = null;
+
+	/**
+	 * Creates the reader
+	 *
+	 * @param shards
+	 *            arff-files to read in the provided order
+	 * @param converter
+	 *            applied to each instance directly after reading it. Might be
+	 *            <code>null</code> to keep the string values in the batches
+	 * @param batchSize
+	 *            amount of instances per batch
+	 * @param prefetchedBatches
+	 *            maximum amount of batches that are read ahead
+	 */
+	public PrefetchingArffReader(List<File> shards, UnaryOperator<Instance> converter, int batchSize, int prefetchedBatches) {
+		this.shards = shards;
+		this.converter = converter;
+		this.batchSize = batchSize;
+		queue = new ArrayBlockingQueue<>(Math.max(1, prefetchedBatches));
+	}
+
+	/**
+	 * Starts reading in the background
+	 */
+	public synchronized void start() {
+		if (producer == null) {
+			producer = StageScheduler.get().submit(StageScheduler.Stage.IO, this::readShards);
+		}
+	}
+
+	private void readShards() {
+		try {
+			for (File shard : shards) {
+				PrefetchingArffReader.logger.info("Reading instances from " + shard.getName());
+				ArffLoader loader = new ArffLoader();
+				loader.setSource(shard);
+				Instances structure = loader.getStructure();
+				structure.setClassIndex(0);
+				List<Instance> batch = newBatch(structure);
+				Instance instance;
+				while ((instance = loader.getNextInstance(structure)) != null) {
+					batch.add((converter != null) ? converter.apply(instance) : PrefetchingArffReader.retain(instance, (Instances) batch));
+					if (batch.size() >= batchSize) {
+						queue.put(batch);
+						batch = newBatch(structure);
+					}
+				}
+				if (!batch.isEmpty()) {
+					queue.put(batch);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		} catch (Exception e) {
+			failure = e;
+		}
+		try {
+			queue.put(END);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private List<Instance> newBatch(Instances structure) {
+		if (converter != null) {
+			return new ArrayList<>(batchSize);
+		}
+		// the loader reuses the string attributes of the structure
+		ArrayList<Attribute> attributes = new ArrayList<>(structure.numAttributes());
+		for (int a = 0; a < structure.numAttributes(); a++) {
+			Attribute attribute = structure.attribute(a);
+			attributes.add(attribute.isString() ? new Attribute(attribute.name(), (List<String>) null) : (Attribute) attribute.copy());
+		}
+		Instances batch = new Instances(structure.relationName(), attributes, batchSize);
+		batch.setClassIndex(structure.classIndex());
+		return batch;
+	}
+
+	/**
+	 * Copies the instance into the batch, with its string values added to the
+	 * header of the batch
+	 */
+	private static Instance retain(Instance instance, Instances batch) {
+		double[] values = instance.toDoubleArray();
+		for (int a = 0; a < values.length; a++) {
+			if (batch.attribute(a).isString() && !instance.isMissing(a)) {
+				values[a] = batch.attribute(a).addStringValue(instance.stringValue(a));
+			}
+		}
+		return new DenseInstance(instance.weight(), values);
+	}
+
+	/**
+	 * Returns the next batch of instances, waits until it is read.
+	 *
+	 * @return the next batch or <code>null</code>, if all shards are read
+	 * @throws Exception
+	 *             if reading a shard failed
+	 */
+	public List<Instance> nextBatch() throws Exception {
+		start();
+		List<Instance> batch = queue.take();
+		if (batch == END) {
+			// keep returning the end
+			queue.put(END);
+			if (failure != null) {
+				throw failure;
+			}
+			return null;
+		}
+		return batch;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (producer != null) {
+			producer.cancel(true);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Compact index from a lemma to the senses that were observed together with
+ * it. Stored in CSR-layout: the candidates of lemma <code>l</code> are
+ * <code>senses[offsets[l]]</code> to <code>senses[offsets[l + 1] - 1]</code>,
+ * sorted ascending. Only the {@link CountingNaiveBayes} keeps such an index,
+ * the default model of the trainer scores all senses.
+ */
+public class SenseCandidateIndex implements Serializable {
+
+	@Serial
+	private static final long serialVersionUID = -1961185950436713032L;
+
+	private final int[] offsets;
+	private final int[] senses;
+
+	private SenseCandidateIndex(int[] offsets, int[] senses) {
+		this.offsets = offsets;
+		this.senses = senses;
+	}
+
+	/**
+	 * Builds the index from the counts of the lemma attribute. The pair counts of
+	 * the lemma have to be exact, approximate stores only report heavy hitters.
+	 *
+	 * @param counts
+	 *            the counts
+	 * @param lemmaIndex
+	 *            index of the lemma attribute
+	 * @return the index
+	 */
+	public static SenseCandidateIndex fromCounts(NaiveBayesCounts counts, int lemmaIndex) {
+		int numLemmas = counts.numValues(lemmaIndex);
+		ValueCountStore pairs = counts.getValueCounts(lemmaIndex);
+		long[] keys = new long[pairs.size()];
+		int[] size = { 0 };
+		pairs.forEach((key, count) -> {
+			// counts might have been subtracted to zero
+			if (count > 0) {
+				keys[size[0]++] = key;
+			}
+		});
+		// sorting the packed keys sorts by lemma, then by sense
+		Arrays.sort(keys, 0, size[0]);
+		int[] offsets = new int[numLemmas + 1];
+		int[] senses = new int[size[0]];
+		for (int i = 0; i < size[0]; i++) {
+			offsets[LongIntHashMap.high(keys[i]) + 1]++;
+			senses[i] = LongIntHashMap.low(keys[i]);
+		}
+		for (int l = 0; l < numLemmas; l++) {
+			offsets[l + 1] += offsets[l];
+		}
+		return new SenseCandidateIndex(offsets, senses);
+	}
+
+	/**
+	 * Returns the position of the first candidate of the lemma
+	 *
+	 * @param lemma
+	 *            the lemma
+	 * @return position of the first candidate, see {@link #senseAt(int)}
+	 */
+	public int begin(int lemma) {
+		return (lemma < (offsets.length - 1)) ? offsets[lemma] : 0;
+	}
+
+	/**
+	 * Returns the position after the last candidate of the lemma
+	 *
+	 * @param lemma
+	 *            the lemma
+	 * @return position after the last candidate, see {@link #senseAt(int)}
+	 */
+	public int end(int lemma) {
+		return (lemma < (offsets.length - 1)) ? offsets[lemma + 1] : 0;
+	}
+
+	public int numCandidates(int lemma) {
+		return end(lemma) - begin(lemma);
+	}
+
+	public int senseAt(int position) {
+		return senses[position];
+	}
+
+	public int numLemmas() {
+		return offsets.length - 1;
+	}
+}
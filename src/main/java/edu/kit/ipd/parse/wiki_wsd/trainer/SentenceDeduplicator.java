@@ -0,0 +1,169 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Detects (near-)duplicate sentences, e.g. boilerplate and templated sentences
+ * of infoboxes, lists and navboxes, before they are annotated again. Lines are
+ * split into sentences, which are normalized (lower case, collapsed whitespace,
+ * digits mapped to 0), hashed and kept in a Bloom filter of fixed size, so the
+ * memory stays bounded no matter how many sentences are seen.
+ *
+ * Checking and recording are separate steps: a sentence is only recorded with
+ * {@link #markSeen(List)} once it was annotated successfully, so duplicates of
+ * a sentence that times out or fails are annotated again. Two threads that
+ * check the same unseen sentence at the same time both annotate it.
+ *
+ * A Bloom filter has no false negatives, but false positives: a small share of
+ * unseen sentences (about the configured rate, as long as no more than the
+ * expected amount of sentences are added) is skipped as well.
+ *
+ * Thread-safe.
+ */
+public class SentenceDeduplicator {
+	private final AtomicLongArray bits;
+	private final long numBits;
+	private final int numHashes;
+
+	private final AtomicLong sentences = new AtomicLong();
+	private final AtomicLong duplicates = new AtomicLong();
+	private final AtomicLong duplicateChars = new AtomicLong();
+
+	/**
+	 * Creates the deduplicator
+	 *
+	 * @param expectedSentences
+	 *            expected amount of distinct sentences
+	 * @param falsePositiveRate
+	 *            rate of unseen sentences that are wrongly reported as duplicate,
+	 *            if the expected amount of sentences is reached
+	 */
+	public SentenceDeduplicator(long expectedSentences, double falsePositiveRate) {
+		long n = Math.max(1, expectedSentences);
+		long m = (long) Math.ceil((-n * Math.log(falsePositiveRate)) / (Math.log(2) * Math.log(2)));
+		// round to whole longs
+		int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (m + 63) / 64));
+		bits = new AtomicLongArray(words);
+		numBits = (long) words * 64;
+		numHashes = Math.max(1, (int) Math.round(((double) numBits / n) * Math.log(2)));
+	}
+
+	/**
+	 * Splits the line into sentences and returns the ones that were not seen
+	 * before. Nothing is recorded, see {@link #markSeen(List)}.
+	 *
+	 * @param line
+	 *            the line
+	 * @return the (probably) unseen sentences in order, each with its trailing
+	 *         whitespace, so joining all sentences of a line gives the line
+	 */
+	public List<String> unseenSentences(String line) {
+		List<String> unseen = new ArrayList<>();
+		BreakIterator iterator = BreakIterator.getSentenceInstance(Locale.ENGLISH);
+		iterator.setText(line);
+		int start = iterator.first();
+		for (int end = iterator.next(); end != BreakIterator.DONE; start = end, end = iterator.next()) {
+			String sentence = line.substring(start, end);
+			sentences.incrementAndGet();
+			if (isSeen(SentenceDeduplicator.normalizedHash(sentence))) {
+				duplicates.incrementAndGet();
+				duplicateChars.addAndGet(sentence.length());
+			} else {
+				unseen.add(sentence);
+			}
+		}
+		return unseen;
+	}
+
+	/**
+	 * Records the sentences as seen, their duplicates are skipped from now on.
+	 *
+	 * @param annotated
+	 *            sentences that were annotated successfully
+	 */
+	public void markSeen(List<String> annotated) {
+		for (String sentence : annotated) {
+			long hash = SentenceDeduplicator.normalizedHash(sentence);
+			long h2 = Hash64.mix(hash) | 1L;
+			for (int i = 0; i < numHashes; i++) {
+				set(Math.floorMod(hash + (i * h2), numBits));
+			}
+		}
+	}
+
+	// double hashing
+	private boolean isSeen(long hash) {
+		long h2 = Hash64.mix(hash) | 1L;
+		for (int i = 0; i < numHashes; i++) {
+			long bit = Math.floorMod(hash + (i * h2), numBits);
+			if ((bits.get((int) (bit >>> 6)) & (1L << (bit & 63))) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void set(long bit) {
+		int word = (int) (bit >>> 6);
+		long mask = 1L << (bit & 63);
+		long current;
+		do {
+			current = bits.get(word);
+			if ((current & mask) != 0) {
+				return;
+			}
+		} while (!bits.compareAndSet(word, current, current | mask));
+	}
+
+	/**
+	 * Hashes the normalized sentence: lower case, runs of whitespace as one
+	 * space, digits as 0 and no leading or trailing whitespace.
+	 *
+	 * @param line
+	 *            the sentence
+	 * @return hash of the normalized sentence
+	 */
+	static long normalizedHash(String line) {
+		Hash64 hash = new Hash64();
+		boolean pendingSpace = false;
+		boolean started = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (Character.isWhitespace(c)) {
+				pendingSpace = started;
+				continue;
+			}
+			if (pendingSpace) {
+				hash.add(' ');
+				pendingSpace = false;
+			}
+			started = true;
+			hash.add(Character.isDigit(c) ? '0' : Character.toLowerCase(c));
+		}
+		return hash.get();
+	}
+
+	/**
+	 * @return summary of the skipped sentences
+	 */
+	public String summary() {
+		long total = sentences.get();
+		long skipped = duplicates.get();
+		double share = (total == 0) ? 0. : (100. * skipped) / total;
+		return String.format("Sentence deduplication: skipped %d of %d sentences (%.2f%%, %d characters not annotated).", skipped, total,
+				share, duplicateChars.get());
+	}
+
+	public long getSentences() {
+		return sentences.get();
+	}
+
+	public long getDuplicates() {
+		return duplicates.get();
+	}
+}
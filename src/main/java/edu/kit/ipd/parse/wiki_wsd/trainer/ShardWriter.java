@@ -0,0 +1,219 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import weka.core.Instances;
+
+/**
+ * Writes arff-shards in the background, so the annotation does not stall while
+ * a shard is written. Shards are written in the
+ * {@link StageScheduler.Stage#SHARD} stage, so they do not take the threads and
+ * queue slots of the input reads; the text of a shard is cut into blocks that
+ * are compressed in parallel in the {@link StageScheduler.Stage#WRITE} stage.
+ * Every block becomes a gzip member of its own and the members are written in
+ * order. A file of concatenated gzip members is a valid gzip file, so the
+ * shards are read with the <code>ArffLoader</code> (and every other gzip
+ * reader) as before.
+ *
+ * Files are compressed, if their name ends with <code>.gz</code>.
+ */
+public class ShardWriter {
+	private static final Logger logger = Logger.getLogger(ShardWriter.class.getName());
+	private static final int BLOCK_SIZE = 4 * 1024 * 1024;
+	private static final String EXTENSION = ".arff";
+	private static final String EXTENSION_COMPRESSED = ".arff.gz";
+
+	/**
+	 * Compression of the shards
+	 */
+	public enum Compression {
+		/** gzip with the default level */
+		GZIP(Deflater.DEFAULT_COMPRESSION),
+		/** gzip with the fastest level, larger files */
+		FAST(Deflater.BEST_SPEED),
+		/** plain arff-files */
+		NONE(Deflater.NO_COMPRESSION);
+
+		private final int level;
+
+		Compression(int level) {
+			this.level = level;
+		}
+	}
+
+	private final Compression compression;
+	private StageScheduler.TaskGroup writes;
+
+	/**
+	 * Creates the writer
+	 *
+	 * @param compression
+	 *            compression of the shards
+	 */
+	public ShardWriter(Compression compression) {
+		this.compression = compression;
+		writes = StageScheduler.get().newGroup(StageScheduler.Stage.SHARD);
+	}
+
+	/**
+	 * Parses the compression
+	 *
+	 * @param name
+	 *            name of the compression, e.g. <code>fast</code>
+	 * @return the compression
+	 * @throws IllegalArgumentException
+	 *             if there is no such compression
+	 */
+	public static Compression parseCompression(String name) {
+		return Compression.valueOf(name.trim().toUpperCase(Locale.ROOT));
+	}
+
+	/**
+	 * @return file extension of the shards
+	 */
+	public String getExtension() {
+		return (compression == Compression.NONE) ? ShardWriter.EXTENSION : ShardWriter.EXTENSION_COMPRESSED;
+	}
+
+	/**
+	 * Writes a range of the instances in the background. The instances are not
+	 * copied, so they must not be changed until the writing is done.
+	 *
+	 * @param instances
+	 *            the instances
+	 * @param from
+	 *            index of the first instance of the shard
+	 * @param to
+	 *            index after the last instance of the shard
+	 * @param file
+	 *            target file
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a free slot in the shard stage
+	 */
+	public void submit(Instances instances, int from, int to, File file) throws InterruptedException {
+		writes.submit(() -> write(instances, from, to, file));
+	}
+
+	/**
+	 * Waits until all submitted shards are written
+	 *
+	 * @throws Exception
+	 *             the first failure of writing a shard
+	 */
+	public void awaitAll() throws Exception {
+		StageScheduler.TaskGroup submitted = writes;
+		writes = StageScheduler.get().newGroup(StageScheduler.Stage.SHARD);
+		submitted.await();
+	}
+
+	/**
+	 * Checks the shards that are written so far, without waiting for the others
+	 *
+	 * @throws Exception
+	 *             the first failure of writing a shard
+	 */
+	public void checkFailures() throws Exception {
+		writes.checkFailure();
+	}
+
+	/**
+	 * Writes a range of the instances as arff-file
+	 *
+	 * @param instances
+	 *            the instances
+	 * @param from
+	 *            index of the first instance of the shard
+	 * @param to
+	 *            index after the last instance of the shard
+	 * @param file
+	 *            target file
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void write(Instances instances, int from, int to, File file) throws IOException {
+		long start = System.currentTimeMillis();
+		boolean compress = file.getName().endsWith(".gz");
+		int maxPendingBlocks = 2 * StageScheduler.get().getThreads(StageScheduler.Stage.WRITE);
+		ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+		try (OutputStream out = new FileOutputStream(file)) {
+			StringBuilder block = new StringBuilder(ShardWriter.BLOCK_SIZE + 1024);
+			block.append(new Instances(instances, 0).toString());
+			for (int i = from; i < to; i++) {
+				block.append(instances.get(i).toString()).append('\n');
+				if (block.length() >= ShardWriter.BLOCK_SIZE) {
+					submitBlock(block.toString(), compress, pending);
+					block.setLength(0);
+					while (pending.size() > maxPendingBlocks) {
+						out.write(ShardWriter.take(pending));
+					}
+				}
+			}
+			submitBlock(block.toString(), compress, pending);
+			while (!pending.isEmpty()) {
+				out.write(ShardWriter.take(pending));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing " + file, e);
+		} finally {
+			for (Future<byte[]> future : pending) {
+				future.cancel(true);
+			}
+		}
+		ShardWriter.logger.info("Wrote " + (to - from) + " instances to " + file + " in " + (System.currentTimeMillis() - start) + " ms.");
+	}
+
+	private void submitBlock(String text, boolean compress, ArrayDeque<Future<byte[]>> pending) throws InterruptedException {
+		if (!compress) {
+			pending.add(CompletableFuture.completedFuture(text.getBytes(StandardCharsets.UTF_8)));
+			return;
+		}
+		int level = (compression == Compression.NONE) ? Deflater.DEFAULT_COMPRESSION : compression.level;
+		pending.add(StageScheduler.get().submit(StageScheduler.Stage.WRITE, () -> ShardWriter.gzip(text, level)));
+	}
+
+	private static byte[] take(ArrayDeque<Future<byte[]>> pending) throws IOException, InterruptedException {
+		try {
+			return pending.poll().get();
+		} catch (ExecutionException e) {
+			throw new IOException("Could not compress a block", e.getCause());
+		}
+	}
+
+	/**
+	 * Compresses the text as one gzip member
+	 *
+	 * @param text
+	 *            the text
+	 * @param level
+	 *            compression level of the deflater
+	 * @return the gzip member
+	 * @throws IOException
+	 *             never, as it writes into memory
+	 */
+	static byte[] gzip(String text, int level) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream((bytes.length / 4) + 64);
+		try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, 64 * 1024) {
+			{
+				def.setLevel(level);
+			}
+		}) {
+			gzip.write(bytes);
+		}
+		return compressed.toByteArray();
+	}
+}
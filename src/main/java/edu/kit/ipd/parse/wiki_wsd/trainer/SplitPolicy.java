@@ -0,0 +1,164 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Decides when the collected training data is written as an arff-shard and the
+ * trainer is reset. The limit is checked after every processed article and can
+ * be given as amount of articles, amount of instances, (estimated) megabytes of
+ * the uncompressed arff-file or percentage of the maximum heap that the
+ * instances of a shard take. The heap is estimated from the instances and their
+ * distinct values (see
+ * {@link Trainer#estimateHeapBytes(int, int, LongIntHashMap)}) instead of
+ * measured, as the used heap contains garbage that is collected at
+ * unpredictable times. So the same data is split at the same points.
+ *
+ * The check after each article lets a shard grow a bit beyond the limit, as the
+ * lines that are still annotated are added as well. For the instance, byte and
+ * heap limits, the shards are therefore cut to the limit when they are written,
+ * so every shard fits the same memory budget when it is loaded again.
+ *
+ * Not thread-safe.
+ */
+public class SplitPolicy {
+	private static final long BYTES_PER_MEGABYTE = 1024L * 1024L;
+
+	/**
+	 * Units of the split limit
+	 */
+	public enum Unit {
+		ARTICLES, INSTANCES, MEGABYTES, HEAP
+	}
+
+	private final Unit unit;
+	private final long limit;
+	// estimated bytes of the instances up to the cursor
+	private long estimatedBytes = 0;
+	private int estimatedUpTo = 0;
+	// values whose heap is already estimated since the last reset
+	private final LongIntHashMap countedValues = new LongIntHashMap();
+
+	/**
+	 * Creates the policy
+	 *
+	 * @param unit
+	 *            unit of the limit
+	 * @param limit
+	 *            amount of articles, instances, megabytes or percent of the
+	 *            maximum heap the instances of a shard may take
+	 */
+	public SplitPolicy(Unit unit, long limit) {
+		if (limit <= 0) {
+			throw new IllegalArgumentException("Split limit must be positive!");
+		}
+		if ((unit == Unit.HEAP) && (limit > 100)) {
+			throw new IllegalArgumentException("Heap limit is a percentage!");
+		}
+		this.unit = unit;
+		this.limit = limit;
+	}
+
+	/**
+	 * Parses the unit
+	 *
+	 * @param name
+	 *            name of the unit, e.g. <code>instances</code>
+	 * @return the unit
+	 * @throws IllegalArgumentException
+	 *             if there is no such unit
+	 */
+	public static Unit parseUnit(String name) {
+		return Unit.valueOf(name.trim().toUpperCase(Locale.ROOT));
+	}
+
+	/**
+	 * Checks whether the limit is reached
+	 *
+	 * @param articles
+	 *            amount of articles since the last split
+	 * @param trainer
+	 *            trainer with the instances since the last split
+	 * @return <code>true</code>, if the data should be written now
+	 */
+	public boolean isReached(long articles, Trainer trainer) {
+		switch (unit) {
+		case ARTICLES:
+			return articles >= limit;
+		case INSTANCES:
+			return trainer.getNumInstances() >= limit;
+		case MEGABYTES:
+		case HEAP:
+			int numInstances = trainer.getNumInstances();
+			estimatedBytes += estimateBytes(trainer, estimatedUpTo, numInstances, countedValues);
+			estimatedUpTo = numInstances;
+			return estimatedBytes >= getByteLimit();
+		default:
+			return false;
+		}
+	}
+
+	private long estimateBytes(Trainer trainer, int from, int to, LongIntHashMap counted) {
+		return (unit == Unit.HEAP) ? trainer.estimateHeapBytes(from, to, counted) : trainer.estimateArffBytes(from, to);
+	}
+
+	private long getByteLimit() {
+		return (unit == Unit.HEAP) ? (long) ((limit / 100.) * Runtime.getRuntime().maxMemory()) : limit * SplitPolicy.BYTES_PER_MEGABYTE;
+	}
+
+	/**
+	 * Returns the ranges of instances that should be written as one shard each.
+	 * Only instance, byte and heap limits cut the data into several shards.
+	 *
+	 * @param trainer
+	 *            trainer with the instances that should be written
+	 * @return ranges as pairs of first index (inclusive) and last index
+	 *         (exclusive)
+	 */
+	public List<int[]> shardRanges(Trainer trainer) {
+		int numInstances = trainer.getNumInstances();
+		List<int[]> ranges = new ArrayList<>();
+		int from = 0;
+		if (unit == Unit.INSTANCES) {
+			for (; (numInstances - from) > limit; from += limit) {
+				ranges.add(new int[] { from, (int) (from + limit) });
+			}
+		} else if ((unit == Unit.MEGABYTES) || (unit == Unit.HEAP)) {
+			long byteLimit = getByteLimit();
+			LongIntHashMap shardValues = new LongIntHashMap();
+			long bytes = 0;
+			for (int i = 0; i < numInstances; i++) {
+				long instanceBytes = estimateBytes(trainer, i, i + 1, shardValues);
+				if (((bytes + instanceBytes) > byteLimit) && (i > from)) {
+					ranges.add(new int[] { from, i });
+					from = i;
+					bytes = 0;
+					// the values of the instance are new to the next shard
+					shardValues.clear();
+					instanceBytes = estimateBytes(trainer, i, i + 1, shardValues);
+				}
+				bytes += instanceBytes;
+			}
+		}
+		ranges.add(new int[] { from, numInstances });
+		return ranges;
+	}
+
+	/**
+	 * Resets the estimation after the data was written
+	 */
+	public void reset() {
+		estimatedBytes = 0;
+		estimatedUpTo = 0;
+		countedValues.clear();
+	}
+
+	public Unit getUnit() {
+		return unit;
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+}
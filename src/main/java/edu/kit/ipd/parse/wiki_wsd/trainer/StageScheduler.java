@@ -0,0 +1,443 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * The one place threads are created for the processing stages of the trainer.
+ * Every {@link Stage} has its own pool with a fixed thread budget (configurable
+ * from the command line) and a bounded amount of queued tasks: submitting
+ * blocks while the queue of the stage is full, so producers cannot run ahead
+ * of the workers. Tasks are submitted in {@link TaskGroup}s, whose
+ * {@link TaskGroup#await()} waits for all tasks without any timeout and
+ * rethrows the first failure. Failing tasks do not cancel the other tasks of
+ * the group, so no work is dropped.
+ *
+ * A task that submits work to its own stage and waits for it would deadlock a
+ * full pool, so such work is run directly on the calling thread instead.
+ *
+ * Optionally, the I/O stage runs each task on its own virtual thread (Java 21
+ * and newer). Blocking reads and writes then do not occupy platform threads, so
+ * many files can be in flight cheaply, while the CPU-bound stages keep their
+ * fixed pools. The budget of the I/O stage limits the amount of tasks in
+ * flight in this case.
+ */
+public final class StageScheduler {
+	private static final Logger logger = Logger.getLogger(StageScheduler.class.getName());
+	private static final int QUEUED_TASKS_PER_THREAD = 4;
+	private static final long KEEP_ALIVE_SECONDS = 30;
+	private static final int VIRTUAL_IO_TASKS = 256;
+	private static final ThreadLocal<Stage> currentStage = new ThreadLocal<>();
+
+	private static StageScheduler instance = null;
+
+	/**
+	 * Named processing stages
+	 */
+	public enum Stage {
+		/** extracting training data from the input lines with CoreNLP */
+		ANNOTATE,
+		/** building (partitioned) models */
+		TRAIN,
+		/** updating models with chunks of instances */
+		UPDATE,
+		/** classifying test instances */
+		EVALUATE,
+		/** compressing output */
+		WRITE,
+		/**
+		 * writing whole arff shards, apart from {@link #IO}, so pending shards do
+		 * not hold up reading the input
+		 */
+		SHARD,
+		/** reading and writing files */
+		IO,
+		/**
+		 * delayed tasks, e.g. the watchdog that interrupts lines that ran out of
+		 * time, see {@link StageScheduler#schedule(Runnable, long, TimeUnit)}
+		 */
+		TIMER
+	}
+
+	private final Map<Stage, ExecutorService> pools = new EnumMap<>(Stage.class);
+	private final Map<Stage, Semaphore> queueSlots = new EnumMap<>(Stage.class);
+	private final Map<Stage, Integer> threads = new EnumMap<>(Stage.class);
+
+	private StageScheduler(Map<Stage, Integer> budgets, boolean virtualIo) {
+		int processors = Runtime.getRuntime().availableProcessors();
+		ExecutorService virtualExecutor = virtualIo ? StageScheduler.createVirtualThreadExecutor() : null;
+		for (Stage stage : Stage.values()) {
+			if ((stage == Stage.IO) && (virtualExecutor != null)) {
+				int budget = Math.max(1, budgets.getOrDefault(stage, StageScheduler.VIRTUAL_IO_TASKS));
+				threads.put(stage, budget);
+				pools.put(stage, virtualExecutor);
+				queueSlots.put(stage, new Semaphore(budget));
+				continue;
+			}
+			int budget = Math.max(1, budgets.getOrDefault(stage, StageScheduler.defaultBudget(stage, processors)));
+			threads.put(stage, budget);
+			AtomicInteger counter = new AtomicInteger();
+			String prefix = stage.name().toLowerCase(Locale.ROOT) + "-";
+			ThreadFactory factory = runnable -> {
+				Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			};
+			ThreadPoolExecutor pool;
+			if (stage == Stage.TIMER) {
+				ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(budget, factory);
+				timer.setRemoveOnCancelPolicy(true);
+				timer.setKeepAliveTime(StageScheduler.KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+				pool = timer;
+			} else {
+				pool = new ThreadPoolExecutor(budget, budget, StageScheduler.KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+						factory);
+			}
+			pool.allowCoreThreadTimeOut(true);
+			pools.put(stage, pool);
+			queueSlots.put(stage, new Semaphore(budget * (1 + StageScheduler.QUEUED_TASKS_PER_THREAD)));
+		}
+	}
+
+	private static int defaultBudget(Stage stage, int processors) {
+		switch (stage) {
+		case IO:
+		case SHARD:
+			return 2;
+		case TIMER:
+			return 1;
+		default:
+			return processors;
+		}
+	}
+
+	/**
+	 * Creates an executor that starts a virtual thread per task. Virtual threads
+	 * are looked up by reflection, so the trainer still runs on older Java
+	 * versions.
+	 *
+	 * @return the executor or <code>null</code>, if virtual threads are not
+	 *         available
+	 */
+	private static ExecutorService createVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			StageScheduler.logger.warning("Virtual threads are not available, using platform threads for I/O.");
+			return null;
+		}
+	}
+
+	private static Runnable inStage(Stage stage, Runnable task) {
+		return () -> {
+			StageScheduler.currentStage.set(stage);
+			try {
+				task.run();
+			} finally {
+				StageScheduler.currentStage.remove();
+			}
+		};
+	}
+
+	/**
+	 * Returns the process-wide scheduler, creates it with the default budgets
+	 * (one thread per processor, two for I/O and for writing shards, one timer)
+	 * if it was not configured.
+	 *
+	 * @return the scheduler
+	 */
+	public static synchronized StageScheduler get() {
+		if (StageScheduler.instance == null) {
+			StageScheduler.instance = new StageScheduler(new EnumMap<>(Stage.class), false);
+		}
+		return StageScheduler.instance;
+	}
+
+	/**
+	 * Configures the thread budgets of the stages. Has to be called before the
+	 * scheduler is used for the first time.
+	 *
+	 * @param specification
+	 *            comma separated pairs of stage and amount of threads, e.g.
+	 *            <code>annotate=8,train=4</code>. Stages that are not listed keep
+	 *            their default. Might be <code>null</code>.
+	 * @param virtualIo
+	 *            whether the I/O stage should run on virtual threads
+	 * @throws IllegalArgumentException
+	 *             if the specification is invalid
+	 * @throws IllegalStateException
+	 *             if the scheduler is already in use
+	 */
+	public static synchronized void configure(String specification, boolean virtualIo) {
+		if (StageScheduler.instance != null) {
+			throw new IllegalStateException("Scheduler is already in use!");
+		}
+		Map<Stage, Integer> budgets = new EnumMap<>(Stage.class);
+		for (String pair : (specification != null) ? specification.split(",") : new String[0]) {
+			String[] parts = pair.trim().split("=");
+			if (parts.length != 2) {
+				throw new IllegalArgumentException("Invalid thread budget: " + pair);
+			}
+			budgets.put(Stage.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)), Integer.parseInt(parts[1].trim()));
+		}
+		StageScheduler.instance = new StageScheduler(budgets, virtualIo);
+		StageScheduler.logger.info("Thread budgets: " + StageScheduler.instance.threads);
+	}
+
+	/**
+	 * Returns the thread budget of the stage
+	 *
+	 * @param stage
+	 *            the stage
+	 * @return amount of threads
+	 */
+	public int getThreads(Stage stage) {
+		return threads.get(stage);
+	}
+
+	/**
+	 * Creates a new group of tasks for the stage
+	 *
+	 * @param stage
+	 *            the stage
+	 * @return the group
+	 */
+	public TaskGroup newGroup(Stage stage) {
+		return new TaskGroup(stage);
+	}
+
+	/**
+	 * Runs all tasks in the stage, waits for them and returns their results in
+	 * the order of the tasks.
+	 *
+	 * @param stage
+	 *            the stage
+	 * @param tasks
+	 *            the tasks
+	 * @return results of the tasks
+	 * @throws Exception
+	 *             the first failure of a task
+	 */
+	public <T> List<T> invokeAll(Stage stage, List<? extends Callable<T>> tasks) throws Exception {
+		List<T> results = new ArrayList<>(tasks.size());
+		for (int i = 0; i < tasks.size(); i++) {
+			results.add(null);
+		}
+		TaskGroup group = newGroup(stage);
+		for (int i = 0; i < tasks.size(); i++) {
+			int index = i;
+			Callable<T> task = tasks.get(i);
+			group.submit(() -> results.set(index, task.call()));
+		}
+		group.await();
+		return results;
+	}
+
+	/**
+	 * Runs a single long-running task in the stage, e.g. a reader in the
+	 * background. Does not count against the queue limit of the stage.
+	 *
+	 * @param stage
+	 *            the stage
+	 * @param task
+	 *            the task
+	 * @return future of the task, cancelling it interrupts the task
+	 */
+	public Future<?> submit(Stage stage, Runnable task) {
+		return pools.get(stage).submit(StageScheduler.inStage(stage, task));
+	}
+
+	/**
+	 * Runs a single task in the stage and returns its result with the future.
+	 * Blocks while the queue of the stage is full.
+	 *
+	 * @param stage
+	 *            the stage
+	 * @param task
+	 *            the task
+	 * @return future of the result
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a free queue slot
+	 */
+	public <T> Future<T> submit(Stage stage, Callable<T> task) throws InterruptedException {
+		Semaphore slots = queueSlots.get(stage);
+		slots.acquire();
+		FutureTask<T> future = new FutureTask<>(task) {
+			@Override
+			protected void done() {
+				// called exactly once, also if the task is cancelled before it runs
+				slots.release();
+			}
+		};
+		try {
+			pools.get(stage).execute(StageScheduler.inStage(stage, future));
+		} catch (RuntimeException e) {
+			// releases the slot
+			future.cancel(false);
+			throw e;
+		}
+		return future;
+	}
+
+	/**
+	 * Runs the task once after the delay in the {@link Stage#TIMER} stage. Timer
+	 * tasks should be short, they delay the other timers of the stage.
+	 *
+	 * @param task
+	 *            the task
+	 * @param delay
+	 *            delay until the task runs
+	 * @param unit
+	 *            unit of the delay
+	 * @return future of the task, cancelling it removes the task
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		ScheduledExecutorService timer = (ScheduledExecutorService) pools.get(Stage.TIMER);
+		return timer.schedule(StageScheduler.inStage(Stage.TIMER, task), delay, unit);
+	}
+
+	/**
+	 * Task that may throw checked exceptions
+	 */
+	@FunctionalInterface
+	public interface Task {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Tasks of one stage that are awaited together
+	 */
+	public final class TaskGroup {
+		private final Stage stage;
+		private final AtomicInteger pending = new AtomicInteger();
+		private volatile Throwable failure = null;
+
+		private TaskGroup(Stage stage) {
+			this.stage = stage;
+		}
+
+		/**
+		 * Submits the task, blocks while the queue of the stage is full. Tasks
+		 * submitted from a thread of the same stage run directly.
+		 *
+		 * @param task
+		 *            the task
+		 * @throws InterruptedException
+		 *             if interrupted while waiting for a free queue slot
+		 */
+		public void submit(Task task) throws InterruptedException {
+			if (StageScheduler.currentStage.get() == stage) {
+				runTask(task);
+				return;
+			}
+			Semaphore slots = queueSlots.get(stage);
+			slots.acquire();
+			pending.incrementAndGet();
+			try {
+				pools.get(stage).execute(StageScheduler.inStage(stage, () -> {
+					try {
+						runTask(task);
+					} finally {
+						slots.release();
+						finished();
+					}
+				}));
+			} catch (RuntimeException e) {
+				slots.release();
+				finished();
+				throw e;
+			}
+		}
+
+		private void runTask(Task task) {
+			try {
+				task.run();
+			} catch (Throwable t) {
+				synchronized (this) {
+					if (failure == null) {
+						failure = t;
+					}
+				}
+			}
+		}
+
+		private synchronized void finished() {
+			if (pending.decrementAndGet() == 0) {
+				notifyAll();
+			}
+		}
+
+		/**
+		 * Waits until all submitted tasks are done
+		 *
+		 * @throws Exception
+		 *             the first failure of a task
+		 */
+		public void await() throws Exception {
+			while (!await(1, TimeUnit.HOURS)) {
+				// keep waiting
+			}
+		}
+
+		/**
+		 * Waits until all submitted tasks are done or the time is over
+		 *
+		 * @param time
+		 *            maximum time to wait
+		 * @param unit
+		 *            unit of the time
+		 * @return <code>true</code>, if all tasks are done
+		 * @throws Exception
+		 *             the first failure of a task
+		 */
+		public boolean await(long time, TimeUnit unit) throws Exception {
+			long deadline = System.nanoTime() + unit.toNanos(time);
+			synchronized (this) {
+				while (pending.get() > 0) {
+					long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+					if (remaining <= 0) {
+						return false;
+					}
+					wait(remaining);
+				}
+			}
+			checkFailure();
+			return true;
+		}
+
+		/**
+		 * Throws the first failure of the tasks that are done so far, without
+		 * waiting for the others
+		 *
+		 * @throws Exception
+		 *             the first failure of a task
+		 */
+		public void checkFailure() throws Exception {
+			Throwable t = failure;
+			if (t instanceof Exception) {
+				throw (Exception) t;
+			} else if (t instanceof Error) {
+				throw new ExecutionException(t);
+			}
+		}
+	}
+}
@@ -1,9 +1,6 @@
 package edu.kit.ipd.parse.wiki_wsd.trainer;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
@@ -18,7 +15,6 @@ import weka.core.Attribute;
 import weka.core.AttributeStats;
 import weka.core.Instance;
 import weka.core.Instances;
-import weka.core.converters.ArffSaver;
 import weka.core.converters.ConverterUtils.DataSource;
 import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.StringToNominal;
@@ -36,6 +32,11 @@ import weka.filters.unsupervised.attribute.StringToNominal;
 // - maybe use SparseInstance to save memory (in WikiWSDTrainer)
 public abstract class Trainer {
 	protected static final Logger logger = Logger.getLogger(Trainer.class.getName());
+	// instance object, its reference in the data set and the header of the value
+	// array
+	private static final long INSTANCE_HEAP_BYTES = 56;
+	// string object, its (compact) character array and the dictionary entry
+	private static final long VALUE_HEAP_BYTES = 96;
 	protected Classifier originalClassifier;
 	protected FilteredClassifier fclassifier;
 	protected Instances trainingSet;
@@ -43,6 +44,8 @@ public abstract class Trainer {
 	protected boolean isBuild = false;
 
 	protected boolean removeUnique = false;
+	protected InstancePruner pruner = null;
+	protected boolean collapseDuplicates = false;
 
 	protected ArrayList<Attribute> attributes;
 
@@ -60,16 +63,9 @@ public abstract class Trainer {
 	}
 
 	private Filter createPreFilter() {
-		// StringToNominal Filtering on the fly.
-		StringToNominal stringFilter = new StringToNominal();
-		stringFilter.setAttributeRange("first-last");
-		try {
-			stringFilter.setInputFormat(trainingSet);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-
-		return stringFilter;
+		// StringToNominal-conversion on the fly, the dictionaries are built when
+		// encoding the training set
+		return new DictionaryEncoder();
 	}
 
 	public void resetInstancesAndFilter() {
@@ -131,9 +127,6 @@ public abstract class Trainer {
 	public void buildClassifier() {
 		try {
 			trainingSet = filter(trainingSet, getFilter());
-			if (!trainingSet.attribute(0).isNominal()) {
-				trainingSet = stringToNominalFiltering(trainingSet);
-			}
 
 			prepareClassifier();
 			// Build the meta-classifier
@@ -179,63 +172,35 @@ public abstract class Trainer {
 		if (removeUnique) {
 			instances = Trainer.filterOutUniqueInstances(instances);
 		}
+		if (pruner != null) {
+			instances = pruner.prune(instances);
+		}
+		if (collapseDuplicates) {
+			instances = InstanceCollapser.collapse(instances);
+		}
+		if (filter instanceof DictionaryEncoder) {
+			return ((DictionaryEncoder) filter).encode(instances);
+		}
 		return Filter.useFilter(instances, filter);
 	}
 
 	/**
-	 * Filters out unique Instances
+	 * Filters out unique Instances, i.e. instances whose class occurs only once.
 	 *
 	 * @param instances
 	 *            Instances that should be filtered
 	 * @return filtered instances (list)
 	 */
-	// TODO: maybe make faster!
 	public static Instances filterOutUniqueInstances(Instances instances) {
-		HashMap<String, List<Instance>> occurenceCounterMap = new HashMap<>();
-		for (Instance current : instances) {
-			String clazz = current.stringValue(0);
-			List<Instance> instList = occurenceCounterMap.get(clazz);
-			if (instList == null) {
-				instList = new ArrayList<>();
-			}
-			instList.add(current);
-			occurenceCounterMap.put(clazz, instList);
-		}
-
-		for (List<Instance> instanceList : occurenceCounterMap.values()) {
-			if (instanceList.size() == 1) {
-				instances.remove(instanceList.get(0));
-			}
-		}
-		return instances;
+		return new InstancePruner(2, 1, 0, WikiWSDTrainer.INSTANCE_WEIGHT).prune(instances);
 	}
 
 	/**
-	 * Saves the training set to a file denoted by the provided filename.
-	 *
-	 * @param filename
-	 *            the output file name
-	 * @param filterUnique
-	 *            filters out unique instances
+	 * Merges duplicate instances of the training set, if enabled
 	 */
-	public synchronized void saveTrainingData(String filename) throws RandomNullPointerException {
-		ArffSaver saver = new ArffSaver();
-		saver.setInstances(trainingSet);
-
-		try {
-			saver.setFile(new File(filename));
-			saver.writeBatch();
-		} catch (IOException e) {
-			e.printStackTrace();
-		} catch (NullPointerException e) {
-			// should not occur anymore, but still keep it
-			saver.cancel();
-			try {
-				saver.getWriter().close();
-			} catch (IOException e1) {
-				e1.printStackTrace();
-			}
-			throw new RandomNullPointerException(e);
+	public synchronized void collapseTrainingData() {
+		if (collapseDuplicates) {
+			InstanceCollapser.collapse(trainingSet);
 		}
 	}
 
@@ -287,15 +252,7 @@ public abstract class Trainer {
 	 *         prepared (use {@link #buildClassifier()} beforehand!)
 	 */
 	public Optional<Evaluation> evaluate(boolean crossValidation) {
-		if (!trainingSet.attribute(1).isNominal() || !trainingSet.attribute(trainingSet.numAttributes() - 1).isNominal()) {
-			// attributes are not nominal, filter them first!
-			try {
-				trainingSet = filterStringToNominal(trainingSet, "2-last");
-			} catch (Exception e) {
-				e.printStackTrace();
-				return Optional.empty();
-			}
-		}
+		// building the classifier already encoded all attributes as nominal
 		if (isBuild) {
 			return (crossValidation) ? evaluateCrossValidationFolds(trainingSet, 10) : evaluateWithInstances(trainingSet);
 		} else {
@@ -410,6 +367,74 @@ public abstract class Trainer {
 		return trainingSet.size() > 0;
 	}
 
+	public synchronized int getNumInstances() {
+		return trainingSet.size();
+	}
+
+	/**
+	 * Estimates the size of a range of instances within an uncompressed
+	 * arff-file: the values, their separators, the weight and the line break.
+	 *
+	 * @param from
+	 *            index of the first instance
+	 * @param to
+	 *            index after the last instance
+	 * @return estimated amount of bytes
+	 */
+	public synchronized long estimateArffBytes(int from, int to) {
+		long bytes = 0;
+		// string values are added to the attributes while annotating
+		Object valuesLock = (attributes != null) ? attributes : this;
+		synchronized (valuesLock) {
+			for (int i = from; i < to; i++) {
+				Instance instance = trainingSet.get(i);
+				// separators, weight and line break
+				bytes += instance.numAttributes() + 4;
+				for (int a = 0; a < instance.numAttributes(); a++) {
+					bytes += instance.isMissing(a) ? 1 : instance.stringValue(a).length();
+				}
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Estimates the heap a range of instances takes when it is loaded again as
+	 * shard of its own: the instance objects with their values and the strings of
+	 * the values, that are not counted for the shard yet. Depends on the
+	 * instances only, not on the state of the garbage collector.
+	 *
+	 * @param from
+	 *            index of the first instance
+	 * @param to
+	 *            index after the last instance
+	 * @param countedValues
+	 *            values (packed attribute and value index) that are already
+	 *            counted for the shard, the values of the range are added
+	 * @return estimated amount of bytes
+	 */
+	public synchronized long estimateHeapBytes(int from, int to, LongIntHashMap countedValues) {
+		long bytes = 0;
+		Object valuesLock = (attributes != null) ? attributes : this;
+		synchronized (valuesLock) {
+			for (int i = from; i < to; i++) {
+				Instance instance = trainingSet.get(i);
+				bytes += Trainer.INSTANCE_HEAP_BYTES + (Double.BYTES * instance.numAttributes());
+				for (int a = 0; a < instance.numAttributes(); a++) {
+					if (instance.isMissing(a) || !(instance.attribute(a).isString() || instance.attribute(a).isNominal())) {
+						continue;
+					}
+					long key = LongIntHashMap.pack(a, (int) instance.value(a));
+					if (countedValues.get(key, 0) == 0) {
+						countedValues.put(key, 1);
+						bytes += Trainer.VALUE_HEAP_BYTES + instance.stringValue(a).length();
+					}
+				}
+			}
+		}
+		return bytes;
+	}
+
 	public boolean isBuild() {
 		return isBuild;
 	}
@@ -422,6 +447,27 @@ public abstract class Trainer {
 		this.removeUnique = removeUnique;
 	}
 
+	/**
+	 * Sets the pruning stage that is applied before building the classifier
+	 *
+	 * @param pruner
+	 *            the pruner to set, <code>null</code> disables pruning
+	 */
+	public void setPruner(InstancePruner pruner) {
+		this.pruner = pruner;
+	}
+
+	/**
+	 * Sets whether duplicate instances are merged into one weighted instance
+	 * before building the classifier and before saving the training data
+	 *
+	 * @param collapseDuplicates
+	 *            the collapseDuplicates to set
+	 */
+	public void setCollapseDuplicates(boolean collapseDuplicates) {
+		this.collapseDuplicates = collapseDuplicates;
+	}
+
 	public synchronized String dataSummaryString() {
 		StringBuffer strBuilder = new StringBuffer(trainingSet.relationName());
 		strBuilder.append("\n");
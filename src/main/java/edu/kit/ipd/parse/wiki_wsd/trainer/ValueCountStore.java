@@ -0,0 +1,65 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.io.Serializable;
+
+/**
+ * Weighted counts of the pairs of attribute value and class of one attribute,
+ * keyed by the packed pair (see {@link LongIntHashMap#pack(int, int)}). Used by
+ * {@link NaiveBayesCounts}, either exact ({@link LongDoubleHashMap}) or
+ * approximate with bounded memory ({@link CountMinSketch}).
+ */
+public interface ValueCountStore extends Serializable {
+
+	/**
+	 * Returns the (possibly estimated) count of the key
+	 *
+	 * @param key
+	 *            the packed pair
+	 * @return the count, 0 for unseen keys
+	 */
+	double get(long key);
+
+	/**
+	 * Adds delta to the count of the key
+	 *
+	 * @param key
+	 *            the packed pair
+	 * @param delta
+	 *            amount to add, negative to remove counts
+	 * @return the new (possibly estimated) count
+	 */
+	double addTo(long key, double delta);
+
+	/**
+	 * Adds the counts of the other store multiplied with the sign to this store
+	 *
+	 * @param other
+	 *            store of the same kind and layout, e.g. from {@link #emptyCopy()}
+	 * @param sign
+	 *            1 to add, -1 to subtract the counts
+	 */
+	void add(ValueCountStore other, double sign);
+
+	/**
+	 * Creates an empty store with the same layout
+	 *
+	 * @return empty store
+	 */
+	ValueCountStore emptyCopy();
+
+	/**
+	 * Calls the consumer for every key that is counted exactly. Approximate stores
+	 * only report the keys they keep exact counts for.
+	 *
+	 * @param consumer
+	 *            consumer of the entries
+	 */
+	void forEach(LongDoubleHashMap.EntryConsumer consumer);
+
+	/**
+	 * Returns the amount of keys that are counted exactly
+	 *
+	 * @return amount of keys reported by {@link #forEach(LongDoubleHashMap.EntryConsumer)}
+	 */
+	int size();
+}
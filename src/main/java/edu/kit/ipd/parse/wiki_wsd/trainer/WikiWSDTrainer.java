@@ -41,8 +41,15 @@ public class WikiWSDTrainer extends Trainer {
 	private static final String NN = "NN";
 	private static final String REGEX_NAMEDENTITY = "^[\\p{Ll}].*";
 	private static final String EMPTYSTRING = "";
+	/**
+	 * Weight of each annotated instance
+	 */
+	public static final double INSTANCE_WEIGHT = 2;
 	private StanfordCoreNLP pipeline;
 	private Pattern pattern;
+	private SentenceDeduplicator deduplicator = null;
+	private WikitextCleaner cleaner = null;
+	private LineGuard guard = null;
 
 	public WikiWSDTrainer(Classifier classifier) {
 		super(classifier);
@@ -87,6 +94,33 @@ public class WikiWSDTrainer extends Trainer {
 	 */
 	@Override
 	public void addTrainingData(String line) {
+		if (guard == null) {
+			processLine(line);
+			return;
+		}
+		for (String part : guard.split(line)) {
+			guard.run(part, () -> processLine(part));
+		}
+	}
+
+	/**
+	 * Annotates the line and adds its instances
+	 *
+	 * @param line
+	 *            the line
+	 * @return <code>false</code>, if the line ran out of time and its instances
+	 *         were discarded
+	 */
+	private boolean processLine(String line) {
+		// skip boilerplate sentences that were annotated before
+		List<String> unseenSentences = null;
+		if (deduplicator != null) {
+			unseenSentences = deduplicator.unseenSentences(line);
+			if (unseenSentences.isEmpty()) {
+				return true;
+			}
+			line = String.join(EMPTYSTRING, unseenSentences);
+		}
 		// prepare sentences and get the actual disambiguations
 		Matcher matcher = pattern.matcher(line);
 
@@ -95,13 +129,17 @@ public class WikiWSDTrainer extends Trainer {
 		// key=word, value=Queue<meaning>
 		Map<String, ArrayDeque<String>> disambiguations = getDisambiguationMap(matcher);
 		if (disambiguations.isEmpty()) {
-			return;
+			return true;
 		}
 		String cleanLine = matcher.replaceAll("$2");
 
 		// run coreNLP on the line
 		Annotation document = new Annotation(cleanLine);
 		pipeline.annotate(document);
+		if (LineGuard.isCancelled()) {
+			// line ran out of time, the guard quarantines it
+			return false;
+		}
 
 		// String[] frequentWords = this.getMostFrequentWords(document);
 		// get sentences and run over them
@@ -178,13 +216,18 @@ public class WikiWSDTrainer extends Trainer {
 					// simple list, that might have problems otherwise
 					// double the weight to have a bigger difference bw laplace
 					// and real instances
-					instance.setWeight(2);
+					instance.setWeight(WikiWSDTrainer.INSTANCE_WEIGHT);
 					synchronized (this) {
 						trainingSet.add(instance);
 					}
 				}
 			}
 		}
+		if (unseenSentences != null) {
+			// only now, duplicates of a line that times out or fails are annotated again
+			deduplicator.markSeen(unseenSentences);
+		}
+		return true;
 	}
 
 	/**
@@ -531,6 +574,72 @@ public class WikiWSDTrainer extends Trainer {
 		}
 	}
 
+	/**
+	 * Sets the deduplication of sentences, duplicates are skipped before
+	 * annotating them
+	 *
+	 * @param deduplicator
+	 *            the deduplicator to set, <code>null</code> disables
+	 *            deduplication
+	 */
+	public void setSentenceDeduplicator(SentenceDeduplicator deduplicator) {
+		this.deduplicator = deduplicator;
+	}
+
+	public SentenceDeduplicator getSentenceDeduplicator() {
+		return deduplicator;
+	}
+
+	/**
+	 * Strips the residual wiki markup from the lines of an article. Has to be
+	 * called with all lines of the article in their order before they are
+	 * added, as markup can span several lines.
+	 *
+	 * @param lines
+	 *            the lines of the article
+	 * @return the cleaned lines, or the provided lines if there is no cleaner
+	 */
+	public List<String> cleanArticle(List<String> lines) {
+		if (cleaner == null) {
+			return lines;
+		}
+		WikitextCleaner.Stripper stripper = cleaner.newStripper();
+		List<String> cleaned = new ArrayList<>(lines.size());
+		for (String line : lines) {
+			cleaned.add(stripper.clean(line));
+		}
+		return cleaned;
+	}
+
+	/**
+	 * Sets the cleaner that strips residual wiki markup from the lines of an
+	 * article (see {@link #cleanArticle(List)}) before the links are extracted
+	 *
+	 * @param cleaner
+	 *            the cleaner to set, <code>null</code> disables cleaning
+	 */
+	public void setWikitextCleaner(WikitextCleaner cleaner) {
+		this.cleaner = cleaner;
+	}
+
+	public WikitextCleaner getWikitextCleaner() {
+		return cleaner;
+	}
+
+	/**
+	 * Sets the guard that limits the length and processing time of lines
+	 *
+	 * @param guard
+	 *            the guard to set, <code>null</code> disables the limits
+	 */
+	public void setLineGuard(LineGuard guard) {
+		this.guard = guard;
+	}
+
+	public LineGuard getLineGuard() {
+		return guard;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
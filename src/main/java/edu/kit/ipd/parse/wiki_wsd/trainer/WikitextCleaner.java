@@ -0,0 +1,312 @@
+package edu.kit.ipd.parse.wiki_wsd.trainer;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Strips residual wiki markup from the lines of an article in one pass before
+ * the links are extracted and the lines are annotated: templates
+ * (<code>{{...}}</code>, also nested), tables (<code>{| ... |}</code>),
+ * references (<code>&lt;ref&gt;...&lt;/ref&gt;</code>), comments, other html
+ * tags (the content between them is kept) and URLs (the label of external
+ * links is kept). Wiki links (<code>[[...]]</code>) are copied unchanged, so the
+ * link extraction works on the cleaned lines as before. Other html tags are
+ * replaced by a space, as e.g. <code>&lt;br&gt;</code> separates words, and
+ * runs of whitespace are collapsed into one space.
+ *
+ * Templates, tables, references and comments often span several lines. A
+ * {@link Stripper} keeps the open markup from one line to the next, so the
+ * lines of an article have to be cleaned in their order by the same stripper.
+ *
+ * Counts the removed characters per category. Thread-safe, the strippers are
+ * not.
+ */
+public class WikitextCleaner {
+	/**
+	 * Categories of removed markup
+	 */
+	public enum Category {
+		TEMPLATE, TABLE, REF, COMMENT, TAG, URL
+	}
+
+	private final AtomicLongArray removedChars = new AtomicLongArray(Category.values().length);
+
+	/**
+	 * Creates a stripper for the lines of one article
+	 *
+	 * @return the stripper
+	 */
+	public Stripper newStripper() {
+		return new Stripper();
+	}
+
+	/**
+	 * Cleans a single line. Markup that is not closed within the line is removed
+	 * up to the end of the line. Use a {@link Stripper} for the lines of an
+	 * article.
+	 *
+	 * @param line
+	 *            line with wiki markup
+	 * @return the line without the markup
+	 */
+	public String clean(String line) {
+		return new Stripper().clean(line);
+	}
+
+	/**
+	 * Strips the markup of consecutive lines of one article. Templates, tables,
+	 * references and comments, that are not closed at the end of a line, are
+	 * removed on the following lines until they are closed. Templates and tables
+	 * nest in each other, so the end of a table (<code>|}</code>) within a
+	 * template (e.g. <code>{{x|}}</code>) does not end the table.
+	 *
+	 * Not thread-safe.
+	 */
+	public final class Stripper {
+		// open templates and tables, the innermost last
+		private final ArrayDeque<Category> open = new ArrayDeque<>();
+		private boolean inComment = false;
+		private boolean inRef = false;
+
+		private Stripper() {
+		}
+
+		/**
+		 * Cleans the next line of the article
+		 *
+		 * @param line
+		 *            line with wiki markup
+		 * @return the line without the markup
+		 */
+		public String clean(String line) {
+			int length = line.length();
+			StringBuilder cleaned = new StringBuilder(length);
+			long[] removed = new long[Category.values().length];
+			int i = 0;
+			while (i < length) {
+				if (isInMarkup()) {
+					// the outermost open markup gets the removed characters
+					Category category = open.isEmpty() ? (inComment ? Category.COMMENT : Category.REF) : open.peekFirst();
+					int end = skipOpen(line, i);
+					removed[category.ordinal()] += end - i;
+					i = end;
+				} else {
+					i = copy(line, i, cleaned, removed);
+				}
+			}
+			for (int category = 0; category < removed.length; category++) {
+				if (removed[category] > 0) {
+					removedChars.addAndGet(category, removed[category]);
+				}
+			}
+			return WikitextCleaner.collapseWhitespace(cleaned);
+		}
+
+		/**
+		 * @return <code>true</code>, if markup of a previous position is still open
+		 */
+		public boolean isInMarkup() {
+			return inComment || inRef || !open.isEmpty();
+		}
+
+		/**
+		 * Skips the next token within open markup
+		 *
+		 * @return position after the token
+		 */
+		private int skipOpen(String line, int i) {
+			if (inComment) {
+				int end = line.indexOf("-->", i);
+				if (end < 0) {
+					return line.length();
+				}
+				inComment = false;
+				return end + 3;
+			}
+			if (inRef) {
+				int close = WikitextCleaner.indexOfIgnoreCase(line, "</ref", i);
+				int end = (close < 0) ? -1 : line.indexOf('>', close);
+				if (end < 0) {
+					return line.length();
+				}
+				inRef = false;
+				return end + 1;
+			}
+			char c = line.charAt(i);
+			if ((c != '{') && (c != '}') && (c != '|') && (c != '<')) {
+				return i + 1;
+			}
+			if (line.startsWith("<!--", i)) {
+				inComment = true;
+				return i + 4;
+			} else if (line.startsWith("{{", i)) {
+				open.addLast(Category.TEMPLATE);
+				return i + 2;
+			} else if (line.startsWith("{|", i)) {
+				open.addLast(Category.TABLE);
+				return i + 2;
+			} else if (line.startsWith("}}", i) && (open.peekLast() == Category.TEMPLATE)) {
+				open.removeLast();
+				return i + 2;
+			} else if (line.startsWith("|}", i) && (open.peekLast() == Category.TABLE)) {
+				open.removeLast();
+				return i + 2;
+			}
+			return i + 1;
+		}
+
+		/**
+		 * Copies the next token outside of markup, or skips it if it is markup
+		 *
+		 * @return position after the token
+		 */
+		private int copy(String line, int i, StringBuilder cleaned, long[] removed) {
+			int length = line.length();
+			char c = line.charAt(i);
+			int end;
+			if ((c == '[') && line.startsWith("[[", i)) {
+				// keep links as they are
+				end = line.indexOf("]]", i + 2);
+				end = (end < 0) ? length : end + 2;
+				cleaned.append(line, i, end);
+				return end;
+			} else if ((c == '{') && line.startsWith("{{", i)) {
+				open.addLast(Category.TEMPLATE);
+				removed[Category.TEMPLATE.ordinal()] += 2;
+				return i + 2;
+			} else if ((c == '{') && line.startsWith("{|", i)) {
+				open.addLast(Category.TABLE);
+				removed[Category.TABLE.ordinal()] += 2;
+				return i + 2;
+			} else if (c == '<') {
+				return skipTag(line, i, removed, cleaned);
+			} else if ((c == '[') && WikitextCleaner.isUrlAt(line, i + 1)) {
+				// external link: drop the url and the brackets, keep the label
+				end = WikitextCleaner.skipUrl(line, i + 1);
+				int close = line.indexOf(']', end);
+				close = (close < 0) ? length : close;
+				int labelStart = ((end < close) && (line.charAt(end) == ' ')) ? end + 1 : end;
+				cleaned.append(line, labelStart, close);
+				removed[Category.URL.ordinal()] += (labelStart - i) + ((close < length) ? 1 : 0);
+				return (close < length) ? close + 1 : length;
+			} else if (((c == 'h') || (c == 'H')) && WikitextCleaner.isUrlAt(line, i)) {
+				end = WikitextCleaner.skipUrl(line, i);
+				removed[Category.URL.ordinal()] += end - i;
+				return end;
+			}
+			cleaned.append(c);
+			return i + 1;
+		}
+
+		private int skipTag(String line, int start, long[] removed, StringBuilder cleaned) {
+			if (line.startsWith("<!--", start)) {
+				inComment = true;
+				removed[Category.COMMENT.ordinal()] += 4;
+				return start + 4;
+			}
+			int tagEnd = line.indexOf('>', start + 1);
+			if ((tagEnd < 0) || !WikitextCleaner.isTagStart(line, start + 1)) {
+				// just a less-than sign
+				cleaned.append('<');
+				return start + 1;
+			}
+			tagEnd++;
+			if (WikitextCleaner.startsWithIgnoreCase(line, start + 1, "ref") && !WikitextCleaner.isNameChar(line, start + 4)) {
+				if (line.charAt(tagEnd - 2) != '/') {
+					// reference with content: drop everything up to the closing tag
+					inRef = true;
+				}
+				removed[Category.REF.ordinal()] += tagEnd - start;
+			} else {
+				removed[Category.TAG.ordinal()] += tagEnd - start;
+				// keep the words around the tag apart
+				cleaned.append(' ');
+			}
+			return tagEnd;
+		}
+	}
+
+	private static String collapseWhitespace(StringBuilder cleaned) {
+		int write = 0;
+		boolean space = false;
+		for (int read = 0; read < cleaned.length(); read++) {
+			char c = cleaned.charAt(read);
+			if (Character.isWhitespace(c)) {
+				space = true;
+				continue;
+			}
+			if (space) {
+				cleaned.setCharAt(write++, ' ');
+				space = false;
+			}
+			cleaned.setCharAt(write++, c);
+		}
+		if (space) {
+			cleaned.setCharAt(write++, ' ');
+		}
+		cleaned.setLength(write);
+		return cleaned.toString();
+	}
+
+	private static boolean isUrlAt(String line, int index) {
+		return WikitextCleaner.startsWithIgnoreCase(line, index, "http://") || WikitextCleaner.startsWithIgnoreCase(line, index, "https://");
+	}
+
+	private static int skipUrl(String line, int start) {
+		int i = start;
+		while ((i < line.length()) && !Character.isWhitespace(line.charAt(i)) && (line.charAt(i) != ']') && (line.charAt(i) != '|')) {
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean isTagStart(String line, int index) {
+		if (index >= line.length()) {
+			return false;
+		}
+		char c = line.charAt(index);
+		return Character.isLetter(c) || (c == '/');
+	}
+
+	private static boolean isNameChar(String line, int index) {
+		return (index < line.length()) && Character.isLetterOrDigit(line.charAt(index));
+	}
+
+	private static boolean startsWithIgnoreCase(String line, int index, String prefix) {
+		return line.regionMatches(true, index, prefix, 0, prefix.length());
+	}
+
+	private static int indexOfIgnoreCase(String line, String text, int from) {
+		for (int i = from; i <= (line.length() - text.length()); i++) {
+			if (line.regionMatches(true, i, text, 0, text.length())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the amount of removed characters of the category
+	 *
+	 * @param category
+	 *            the category
+	 * @return amount of removed characters
+	 */
+	public long getRemovedChars(Category category) {
+		return removedChars.get(category.ordinal());
+	}
+
+	/**
+	 * @return summary of the removed characters per category
+	 */
+	public String summary() {
+		StringBuilder summary = new StringBuilder("Wikitext cleaning removed characters:");
+		long total = 0;
+		for (Category category : Category.values()) {
+			long removed = getRemovedChars(category);
+			total += removed;
+			summary.append(' ').append(category.name().toLowerCase()).append('=').append(removed);
+		}
+		return summary.append(" total=").append(total).toString();
+	}
+}
@@ -0,0 +1,123 @@
+package edu.kit.ipd.pronat.wiki_wsd.trainer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.kit.ipd.parse.wiki_wsd.trainer.CountMinSketch;
+import edu.kit.ipd.parse.wiki_wsd.trainer.LongIntHashMap;
+
+/**
+ * Tests for the {@link CountMinSketch}.
+ */
+public class CountMinSketchTest {
+	private static final int DEPTH = 4;
+	private static final double WEIGHT = 2.;
+	private static final long FREQUENT_A = LongIntHashMap.pack(1, 0);
+	private static final long FREQUENT_B = LongIntHashMap.pack(2, 0);
+
+	private static void add(CountMinSketch sketch, Map<Long, Double> counts, long key) {
+		sketch.addTo(key, CountMinSketchTest.WEIGHT);
+		counts.merge(key, CountMinSketchTest.WEIGHT, Double::sum);
+	}
+
+	private static boolean isHeavyHitter(CountMinSketch sketch, long key) {
+		boolean[] found = { false };
+		sketch.forEach((k, count) -> found[0] |= (k == key));
+		return found[0];
+	}
+
+	/**
+	 * Creates a sketch that is wide enough to have no collisions for the few keys
+	 * of the tests, so all counts are exact. The key, that is frequent in this
+	 * sketch, is a heavy hitter, the frequent key of the other sketch is added
+	 * only once.
+	 */
+	private static CountMinSketch createSketch(Map<Long, Double> counts, long frequent, long other, int from) {
+		CountMinSketch sketch = new CountMinSketch(1 << 16, CountMinSketchTest.DEPTH, 8);
+		for (int i = 0; i < 10; i++) {
+			CountMinSketchTest.add(sketch, counts, frequent);
+		}
+		CountMinSketchTest.add(sketch, counts, other);
+		for (int value = from; value < (from + 300); value++) {
+			CountMinSketchTest.add(sketch, counts, LongIntHashMap.pack(value, value % 7));
+		}
+		Assert.assertTrue(CountMinSketchTest.isHeavyHitter(sketch, frequent));
+		Assert.assertFalse(CountMinSketchTest.isHeavyHitter(sketch, other));
+		return sketch;
+	}
+
+	/**
+	 * Merging contains the counts of both sketches, also for keys that are only
+	 * counted exactly by one of them.
+	 */
+	@Test
+	public void testAdd_merge() {
+		Map<Long, Double> countsA = new HashMap<>();
+		Map<Long, Double> countsB = new HashMap<>();
+		CountMinSketch a = CountMinSketchTest.createSketch(countsA, CountMinSketchTest.FREQUENT_A, CountMinSketchTest.FREQUENT_B, 100);
+		CountMinSketch b = CountMinSketchTest.createSketch(countsB, CountMinSketchTest.FREQUENT_B, CountMinSketchTest.FREQUENT_A, 300);
+
+		a.add(b, 1);
+
+		Map<Long, Double> merged = new HashMap<>(countsA);
+		countsB.forEach((key, count) -> merged.merge(key, count, Double::sum));
+		for (Map.Entry<Long, Double> entry : merged.entrySet()) {
+			Assert.assertEquals(entry.getValue(), a.get(entry.getKey()), 1e-9);
+		}
+		Assert.assertEquals(22., a.get(CountMinSketchTest.FREQUENT_A), 1e-9);
+		Assert.assertEquals(22., a.get(CountMinSketchTest.FREQUENT_B), 1e-9);
+	}
+
+	/**
+	 * Subtracting a merged sketch restores the counts before the merge.
+	 */
+	@Test
+	public void testAdd_subtract() {
+		Map<Long, Double> countsA = new HashMap<>();
+		Map<Long, Double> countsB = new HashMap<>();
+		CountMinSketch a = CountMinSketchTest.createSketch(countsA, CountMinSketchTest.FREQUENT_A, CountMinSketchTest.FREQUENT_B, 100);
+		CountMinSketch b = CountMinSketchTest.createSketch(countsB, CountMinSketchTest.FREQUENT_B, CountMinSketchTest.FREQUENT_A, 300);
+
+		a.add(b, 1);
+		a.add(b, -1);
+
+		for (Long key : countsB.keySet()) {
+			Assert.assertEquals(countsA.getOrDefault(key, 0.), a.get(key), 1e-9);
+		}
+		for (Map.Entry<Long, Double> entry : countsA.entrySet()) {
+			Assert.assertEquals(entry.getValue(), a.get(entry.getKey()), 1e-9);
+		}
+	}
+
+	/**
+	 * Estimates never underestimate and exceed the true count by more than the
+	 * error bound at most for the documented share of the keys.
+	 */
+	@Test
+	public void testGet_errorBound() {
+		CountMinSketch sketch = new CountMinSketch(512, CountMinSketchTest.DEPTH, 64);
+		Map<Long, Double> counts = new HashMap<>();
+		Random random = new Random(1);
+		for (int i = 0; i < 50_000; i++) {
+			// skewed like the pairs of an attribute: few frequent, many rare values
+			int value = (int) Math.floor(Math.pow(5000, random.nextDouble()));
+			CountMinSketchTest.add(sketch, counts, LongIntHashMap.pack(value, value % 3));
+		}
+
+		// weight of the exactly counted keys is not in the cells
+		Assert.assertTrue(sketch.getErrorBound() <= ((Math.E / 512) * 100_000));
+		int exceeded = 0;
+		for (Map.Entry<Long, Double> entry : counts.entrySet()) {
+			double estimate = sketch.get(entry.getKey());
+			Assert.assertTrue(estimate >= entry.getValue());
+			if ((estimate - entry.getValue()) > sketch.getErrorBound()) {
+				exceeded++;
+			}
+		}
+		Assert.assertTrue(exceeded <= (sketch.getFailureProbability() * counts.size()));
+	}
+}
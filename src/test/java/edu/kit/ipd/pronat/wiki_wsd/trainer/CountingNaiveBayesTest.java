@@ -0,0 +1,114 @@
+package edu.kit.ipd.pronat.wiki_wsd.trainer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.kit.ipd.parse.wiki_wsd.trainer.CountingNaiveBayes;
+import edu.kit.ipd.parse.wiki_wsd.trainer.NaiveBayesCounts;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Tests for the {@link CountingNaiveBayes}.
+ */
+public class CountingNaiveBayesTest {
+	private static final String COUNTING_TEST = "CountingTest";
+	private static final double DELTA = 1e-9;
+	private static final double[][] TRAINING = { { 0, 0, 0 }, { 0, 0, 1 }, { 1, 0, 1 }, { 1, 0, 2 }, { 2, 1, 3 }, { 2, 1, 3 } };
+
+	private static Instances createInstances(boolean withContext) {
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		attributes.add(new Attribute("sense", Arrays.asList("s0", "s1", "s2")));
+		attributes.add(new Attribute("lemma", Arrays.asList("l0", "l1")));
+		if (withContext) {
+			attributes.add(new Attribute("word", Arrays.asList("w0", "w1", "w2", "w3")));
+		}
+		Instances instances = new Instances(CountingNaiveBayesTest.COUNTING_TEST, attributes, TRAINING.length);
+		instances.setClassIndex(0);
+		for (double[] values : TRAINING) {
+			instances.add(new DenseInstance(2., Arrays.copyOf(values, attributes.size())));
+		}
+		return instances;
+	}
+
+	/**
+	 * A sketch budget without context attributes keeps all counts exact instead
+	 * of dividing the budget by zero attributes.
+	 */
+	@Test
+	public void testBuildClassifier_sketchBudgetWithoutContext() throws Exception {
+		CountingNaiveBayes classifier = new CountingNaiveBayes(false);
+		classifier.setSketchBudget(1024 * 1024);
+		classifier.buildClassifier(CountingNaiveBayesTest.createInstances(false));
+		Assert.assertFalse(classifier.getCounts().isApproximate());
+		Assert.assertEquals(12., classifier.getCounts().getTotalWeight(), CountingNaiveBayesTest.DELTA);
+	}
+
+	/**
+	 * Removing instances directly gives the same model as removing their counts.
+	 */
+	@Test
+	public void testWithout_instancesMatchCounts() throws Exception {
+		Instances data = CountingNaiveBayesTest.createInstances(true);
+		CountingNaiveBayes full = new CountingNaiveBayes(true);
+		full.buildClassifier(data);
+		List<Instance> removed = data.subList(1, 3);
+		NaiveBayesCounts removedCounts = full.getCounts().emptyCopy();
+		for (Instance instance : removed) {
+			removedCounts.add(instance);
+		}
+
+		CountingNaiveBayes byCounts = full.without(removedCounts);
+		CountingNaiveBayes byInstances = full.without(removed);
+		Assert.assertEquals(byCounts.getCounts().getTotalWeight(), byInstances.getCounts().getTotalWeight(), CountingNaiveBayesTest.DELTA);
+		for (Instance instance : data) {
+			Assert.assertArrayEquals(byCounts.distributionForInstance(instance), byInstances.distributionForInstance(instance),
+					CountingNaiveBayesTest.DELTA);
+		}
+		Assert.assertEquals(12., full.getCounts().getTotalWeight(), CountingNaiveBayesTest.DELTA);
+	}
+
+	/**
+	 * A model that was saved without compiled tables (before they were part of
+	 * the model) compiles them from its counts after loading.
+	 */
+	@Test
+	public void testReadObject_modelWithoutTables() throws Exception {
+		Instances data = CountingNaiveBayesTest.createInstances(true);
+		CountingNaiveBayes classifier = new CountingNaiveBayes(true);
+		classifier.buildClassifier(data);
+		double[][] expected = new double[data.size()][];
+		for (int i = 0; i < data.size(); i++) {
+			expected[i] = classifier.distributionForInstance(data.get(i));
+		}
+		// like the models saved before, the counts are up to date but nothing is
+		// compiled
+		Field compiled = CountingNaiveBayes.class.getDeclaredField("compiled");
+		compiled.setAccessible(true);
+		compiled.set(classifier, null);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(classifier);
+		}
+		CountingNaiveBayes loaded;
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			loaded = (CountingNaiveBayes) in.readObject();
+		}
+		Assert.assertNotNull(loaded.getCandidateIndex());
+		for (int i = 0; i < data.size(); i++) {
+			Assert.assertArrayEquals(expected[i], loaded.distributionForInstance(data.get(i)), CountingNaiveBayesTest.DELTA);
+		}
+	}
+}
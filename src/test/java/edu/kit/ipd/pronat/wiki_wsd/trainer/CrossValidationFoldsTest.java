@@ -0,0 +1,84 @@
+package edu.kit.ipd.pronat.wiki_wsd.trainer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.kit.ipd.parse.wiki_wsd.trainer.CrossValidationFolds;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Tests for the {@link CrossValidationFolds}.
+ */
+public class CrossValidationFoldsTest {
+	private static final String FOLDS_TEST = "FoldsTest";
+
+	private static Instances createInstances(int size) {
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		attributes.add(new Attribute("sense", Arrays.asList("a", "b", "c")));
+		attributes.add(new Attribute("id"));
+		Instances instances = new Instances(FOLDS_TEST, attributes, size);
+		instances.setClassIndex(0);
+		for (int i = 0; i < size; i++) {
+			// a: 60%, b: 30%, c: 10%
+			int sense = (i % 10) < 6 ? 0 : ((i % 10) < 9 ? 1 : 2);
+			instances.add(new DenseInstance(1., new double[] { sense, i }));
+		}
+		return instances;
+	}
+
+	/**
+	 * Every instance is tested exactly once and never trained on in the same fold,
+	 * the data keeps its order.
+	 */
+	@Test
+	public void testFolds_partition() {
+		Instances instances = createInstances(103);
+		CrossValidationFolds folds = new CrossValidationFolds(instances, 10, new Random(1));
+
+		Set<Integer> tested = new HashSet<>();
+		for (int fold = 0; fold < 10; fold++) {
+			List<Instance> test = folds.test(fold);
+			List<Instance> train = folds.train(fold);
+			Assert.assertEquals(103, test.size() + train.size());
+			Set<Integer> testIds = new HashSet<>();
+			for (Instance instance : test) {
+				testIds.add((int) instance.value(1));
+			}
+			for (Instance instance : train) {
+				Assert.assertFalse(testIds.contains((int) instance.value(1)));
+			}
+			for (Integer id : testIds) {
+				Assert.assertTrue(tested.add(id));
+			}
+		}
+		Assert.assertEquals(103, tested.size());
+		for (int i = 0; i < instances.size(); i++) {
+			Assert.assertEquals(i, (int) instances.get(i).value(1));
+		}
+	}
+
+	/**
+	 * Each fold gets about its share of every class.
+	 */
+	@Test
+	public void testFolds_stratified() {
+		CrossValidationFolds folds = new CrossValidationFolds(createInstances(100), 10, new Random(1));
+		for (int fold = 0; fold < 10; fold++) {
+			int[] counts = new int[3];
+			for (Instance instance : folds.test(fold)) {
+				counts[(int) instance.classValue()]++;
+			}
+			Assert.assertArrayEquals(new int[] { 6, 3, 1 }, counts);
+		}
+	}
+}
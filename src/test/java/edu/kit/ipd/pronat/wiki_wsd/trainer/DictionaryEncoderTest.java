@@ -0,0 +1,73 @@
+package edu.kit.ipd.pronat.wiki_wsd.trainer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.kit.ipd.parse.wiki_wsd.trainer.DictionaryEncoder;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.StringToNominal;
+
+/**
+ * Tests for the {@link DictionaryEncoder}.
+ */
+public class DictionaryEncoderTest {
+	private static final String ENCODER_TEST = "EncoderTest";
+	private static final String[][] ROWS = { { "s1", "l0", "w2" }, { "s0", "l0", null }, { "s1", "l1", "w0" }, { "s2", "l1", "w1" } };
+
+	private static Instances createInstances(String[][] rows) {
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		attributes.add(new Attribute("sense", (List<String>) null));
+		attributes.add(new Attribute("lemma", (List<String>) null));
+		attributes.add(new Attribute("word", (List<String>) null));
+		Instances instances = new Instances(DictionaryEncoderTest.ENCODER_TEST, attributes, rows.length);
+		instances.setClassIndex(0);
+		for (String[] row : rows) {
+			Instance instance = new DenseInstance(attributes.size());
+			instance.setDataset(instances);
+			for (int a = 0; a < row.length; a++) {
+				if (row[a] == null) {
+					instance.setMissing(a);
+				} else {
+					instance.setValue(a, row[a]);
+				}
+			}
+			instances.add(instance);
+		}
+		return instances;
+	}
+
+	/**
+	 * The StringToNominal filter of a saved model encodes like the encoder, also
+	 * after the dictionaries were extended.
+	 */
+	@Test
+	public void testToStringToNominal_sameEncoding() throws Exception {
+		DictionaryEncoder encoder = new DictionaryEncoder();
+		Instances encoded = encoder.encode(DictionaryEncoderTest.createInstances(DictionaryEncoderTest.ROWS));
+		Instances update = DictionaryEncoderTest.createInstances(new String[][] { { "s3", "l2", "w3" } });
+		Assert.assertTrue(encoder.extend(update));
+
+		StringToNominal stringFilter = encoder.toStringToNominal();
+		Instances header = stringFilter.getOutputFormat();
+		for (int a = 0; a < header.numAttributes(); a++) {
+			Assert.assertEquals(encoder.getHeader().attribute(a).numValues(), header.attribute(a).numValues());
+			for (int i = 0; i < header.attribute(a).numValues(); i++) {
+				Assert.assertEquals(encoder.getHeader().attribute(a).value(i), header.attribute(a).value(i));
+			}
+		}
+
+		Instances filtered = Filter.useFilter(DictionaryEncoderTest.createInstances(DictionaryEncoderTest.ROWS), stringFilter);
+		for (int i = 0; i < encoded.size(); i++) {
+			Assert.assertArrayEquals(encoded.get(i).toDoubleArray(), filtered.get(i).toDoubleArray(), 0);
+		}
+		Instance converted = encoder.convert(update.get(0));
+		Assert.assertArrayEquals(converted.toDoubleArray(), Filter.useFilter(update, stringFilter).get(0).toDoubleArray(), 0);
+	}
+}
@@ -0,0 +1,99 @@
+package edu.kit.ipd.pronat.wiki_wsd.trainer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.kit.ipd.parse.wiki_wsd.trainer.InstancePruner;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Tests for the {@link InstancePruner}.
+ */
+public class InstancePrunerTest {
+	private static final String PRUNER_TEST = "PrunerTest";
+
+	private static Instances createInstances(String[][] rows) {
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		attributes.add(new Attribute("sense", (List<String>) null));
+		attributes.add(new Attribute("lemma", (List<String>) null));
+		attributes.add(new Attribute("word", (List<String>) null));
+		Instances instances = new Instances(PRUNER_TEST, attributes, rows.length);
+		instances.setClassIndex(0);
+		for (String[] row : rows) {
+			Instance instance = new DenseInstance(attributes.size());
+			instance.setDataset(instances);
+			for (int i = 0; i < row.length; i++) {
+				instance.setValue(i, row[i]);
+			}
+			instances.add(instance);
+		}
+		return instances;
+	}
+
+	/**
+	 * Senses that occur only once are removed, the rest keeps its order.
+	 */
+	@Test
+	public void testPrune_minSenseCount() {
+		Instances instances = createInstances(new String[][] { { "a", "x", "w1" }, { "b", "x", "w2" }, { "a", "x", "w3" }, { "c", "y", "w4" },
+				{ "a", "x", "w5" } });
+		new InstancePruner(2, 1, 0).prune(instances);
+
+		Assert.assertEquals(3, instances.size());
+		Assert.assertEquals("w1", instances.get(0).stringValue(2));
+		Assert.assertEquals("w3", instances.get(1).stringValue(2));
+		Assert.assertEquals("w5", instances.get(2).stringValue(2));
+	}
+
+	/**
+	 * Only the most frequent sense per lemma survives with top-1.
+	 */
+	@Test
+	public void testPrune_topSensesPerLemma() {
+		Instances instances = createInstances(new String[][] { { "bank_river", "bank", "w" }, { "bank_money", "bank", "w" },
+				{ "bank_money", "bank", "w" }, { "mouse_animal", "mouse", "w" } });
+		new InstancePruner(1, 1, 1).prune(instances);
+
+		Assert.assertEquals(3, instances.size());
+		for (Instance instance : instances) {
+			Assert.assertFalse("bank_river".equals(instance.stringValue(0)));
+		}
+	}
+
+	/**
+	 * A merged instance counts as often as it was merged.
+	 */
+	@Test
+	public void testPrune_collapsedWeights() {
+		Instances instances = createInstances(new String[][] { { "a", "x", "common" }, { "b", "x", "common" } });
+		for (Instance instance : instances) {
+			instance.setWeight(2);
+		}
+		// "a" was merged from two instances
+		instances.get(0).setWeight(4);
+		new InstancePruner(2, 3, 0, 2).prune(instances);
+
+		Assert.assertEquals(1, instances.size());
+		Assert.assertEquals("a", instances.get(0).stringValue(0));
+		Assert.assertFalse(instances.get(0).isMissing(2));
+	}
+
+	/**
+	 * Rare attribute values are set to missing while the instance is kept.
+	 */
+	@Test
+	public void testPrune_minValueCount() {
+		Instances instances = createInstances(new String[][] { { "a", "x", "common" }, { "a", "x", "common" }, { "a", "x", "rare" } });
+		new InstancePruner(1, 2, 0).prune(instances);
+
+		Assert.assertEquals(3, instances.size());
+		Assert.assertFalse(instances.get(0).isMissing(2));
+		Assert.assertTrue(instances.get(2).isMissing(2));
+	}
+}
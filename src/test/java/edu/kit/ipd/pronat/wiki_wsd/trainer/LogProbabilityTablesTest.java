@@ -0,0 +1,130 @@
+package edu.kit.ipd.pronat.wiki_wsd.trainer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.kit.ipd.parse.wiki_wsd.trainer.CountingNaiveBayes;
+import edu.kit.ipd.parse.wiki_wsd.trainer.LogProbabilityTables;
+import edu.kit.ipd.parse.wiki_wsd.trainer.NaiveBayesCounts;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Tests that the {@link LogProbabilityTables} score like the
+ * {@link NaiveBayesCounts} they are compiled from.
+ */
+public class LogProbabilityTablesTest {
+	private static final String TABLES_TEST = "TablesTest";
+	private static final double DELTA = 1e-9;
+	private static final double[][] TRAINING = { { 0, 0, 0 }, { 0, 0, 1 }, { 1, 0, 1 }, { 1, 0, 2 }, { 2, 1, 3 }, { 2, 1, 3 },
+			{ 0, 0, Utils.missingValue() } };
+
+	private static Instances createInstances() {
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		attributes.add(new Attribute("sense", Arrays.asList("s0", "s1", "s2")));
+		attributes.add(new Attribute("lemma", Arrays.asList("l0", "l1", "l2")));
+		Attribute word = new Attribute("word", Arrays.asList("w0", "w1", "w2", "w3"));
+		word.setWeight(10);
+		attributes.add(word);
+		Instances instances = new Instances(TABLES_TEST, attributes, TRAINING.length);
+		instances.setClassIndex(0);
+		for (double[] values : TRAINING) {
+			instances.add(new DenseInstance(2., values.clone()));
+		}
+		return instances;
+	}
+
+	/**
+	 * Instances to score: seen and unseen pairs, a missing value, a value
+	 * outside of the compiled range and an unseen lemma
+	 */
+	private static List<Instance> createTestInstances(Instances header) {
+		double[][] rows = { { 0, 0, 1 }, { 0, 0, 3 }, { 0, 1, Utils.missingValue() }, { 0, 0, 7 }, { 0, 2, 2 },
+				{ 0, Utils.missingValue(), 0 } };
+		List<Instance> instances = new ArrayList<>();
+		for (double[] row : rows) {
+			Instance instance = new DenseInstance(1., row);
+			instance.setDataset(header);
+			instances.add(instance);
+		}
+		return instances;
+	}
+
+	/**
+	 * logJoint and logJoints of the tables equal the log joint probabilities of
+	 * the counts.
+	 */
+	@Test
+	public void testLogJoint_matchesCounts() {
+		Instances data = LogProbabilityTablesTest.createInstances();
+		NaiveBayesCounts counts = new NaiveBayesCounts(data);
+		for (Instance instance : data) {
+			counts.add(instance);
+		}
+		LogProbabilityTables tables = LogProbabilityTables.compile(counts);
+		Assert.assertNotNull(tables);
+
+		double[] row = new double[counts.numClasses()];
+		for (Instance instance : LogProbabilityTablesTest.createTestInstances(data)) {
+			tables.logJoints(instance, row);
+			for (int c = 0; c < counts.numClasses(); c++) {
+				double expected = counts.logJoint(instance, c);
+				Assert.assertEquals(expected, tables.logJoint(instance, c), LogProbabilityTablesTest.DELTA);
+				Assert.assertEquals(expected, row[c], LogProbabilityTablesTest.DELTA);
+			}
+		}
+	}
+
+	/**
+	 * Scoring restricted to the candidates of the lemma gives the same scores for
+	 * the candidates as scoring all classes, the other classes are ruled out.
+	 * Unseen and missing lemmas are scored against all classes.
+	 */
+	@Test
+	public void testLogLikelihoods_candidatesMatchFullScoring() throws Exception {
+		Instances data = LogProbabilityTablesTest.createInstances();
+		CountingNaiveBayes restricted = new CountingNaiveBayes(true);
+		restricted.buildClassifier(data);
+		CountingNaiveBayes full = new CountingNaiveBayes(false);
+		full.buildClassifier(data);
+
+		List<Instance> block = LogProbabilityTablesTest.createTestInstances(data);
+		double[][] restrictedScores = new double[block.size()][data.numClasses()];
+		double[][] fullScores = new double[block.size()][data.numClasses()];
+		restricted.logLikelihoodsForBlock(block, restrictedScores);
+		full.logLikelihoodsForBlock(block, fullScores);
+
+		for (int i = 0; i < block.size(); i++) {
+			Instance instance = block.get(i);
+			for (int c = 0; c < data.numClasses(); c++) {
+				Assert.assertEquals(full.getCounts().logJoint(instance, c), fullScores[i][c], LogProbabilityTablesTest.DELTA);
+				boolean candidate = instance.isMissing(1) || (restricted.getCandidateIndex().numCandidates((int) instance.value(1)) == 0)
+						|| LogProbabilityTablesTest.isCandidate(restricted, (int) instance.value(1), c);
+				if (candidate) {
+					Assert.assertEquals(fullScores[i][c], restrictedScores[i][c], LogProbabilityTablesTest.DELTA);
+				} else {
+					Assert.assertEquals(Double.NEGATIVE_INFINITY, restrictedScores[i][c], 0);
+				}
+			}
+		}
+		// l0 was seen with s0 and s1, l1 only with s2
+		Assert.assertTrue(LogProbabilityTablesTest.isCandidate(restricted, 0, 1));
+		Assert.assertFalse(LogProbabilityTablesTest.isCandidate(restricted, 1, 0));
+	}
+
+	private static boolean isCandidate(CountingNaiveBayes classifier, int lemma, int sense) {
+		for (int i = classifier.getCandidateIndex().begin(lemma); i < classifier.getCandidateIndex().end(lemma); i++) {
+			if (classifier.getCandidateIndex().senseAt(i) == sense) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,92 @@
+package edu.kit.ipd.pronat.wiki_wsd.trainer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.kit.ipd.parse.wiki_wsd.trainer.CountingNaiveBayes;
+import edu.kit.ipd.parse.wiki_wsd.trainer.DictionaryEncoder;
+import edu.kit.ipd.parse.wiki_wsd.trainer.ModelUpdater;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Tests that a model saved after training (-c) can be loaded and updated
+ * (-u).
+ */
+public class ModelUpdaterTest {
+	private static final String UPDATER_TEST = "UpdaterTest";
+	private static final String[][] TRAINING = { { "s0", "l0", "w0" }, { "s0", "l0", "w1" }, { "s1", "l0", "w1" }, { "s2", "l1", "w2" } };
+	private static final String[][] UPDATE = { { "s3", "l2", "w3" }, { "s0", "l0", "w3" } };
+
+	private static Instances createInstances(String[][] rows) {
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		attributes.add(new Attribute("sense", (List<String>) null));
+		attributes.add(new Attribute("lemma", (List<String>) null));
+		attributes.add(new Attribute("word", (List<String>) null));
+		Instances instances = new Instances(ModelUpdaterTest.UPDATER_TEST, attributes, rows.length);
+		instances.setClassIndex(0);
+		for (String[] row : rows) {
+			Instance instance = new DenseInstance(attributes.size());
+			instance.setDataset(instances);
+			for (int a = 0; a < row.length; a++) {
+				instance.setValue(a, row[a]);
+			}
+			instances.add(instance);
+		}
+		return instances;
+	}
+
+	private static File createTempFile(String suffix) throws Exception {
+		File file = File.createTempFile(ModelUpdaterTest.UPDATER_TEST, suffix);
+		file.deleteOnExit();
+		return file;
+	}
+
+	/**
+	 * Saves a trained counting model, loads it again and adds instances with
+	 * unseen senses, lemmas and words.
+	 */
+	@Test
+	public void testLoad_savedModelCanBeUpdated() throws Exception {
+		Instances data = ModelUpdaterTest.createInstances(ModelUpdaterTest.TRAINING);
+		DictionaryEncoder encoder = new DictionaryEncoder();
+		Instances encoded = encoder.encode(data);
+		CountingNaiveBayes classifier = new CountingNaiveBayes(true);
+		classifier.buildClassifier(encoded);
+
+		File classifierFile = ModelUpdaterTest.createTempFile(".classifier");
+		File filterFile = ModelUpdaterTest.createTempFile(".filter");
+		File headerFile = ModelUpdaterTest.createTempFile(".header");
+		ModelUpdater.save(classifier, encoder, data, classifierFile.getPath(), filterFile.getPath(), headerFile.getPath());
+
+		ModelUpdater updater = ModelUpdater.load(classifierFile.getPath(), filterFile.getPath(), headerFile.getPath());
+		Assert.assertTrue(updater.getClassifier() instanceof CountingNaiveBayes);
+		Assert.assertEquals(0, updater.getHeader().size());
+		Assert.assertEquals(3, updater.getEncoder().getHeader().numClasses());
+		CountingNaiveBayes loaded = (CountingNaiveBayes) updater.getClassifier();
+		Assert.assertEquals(classifier.getCounts().getTotalWeight(), loaded.getCounts().getTotalWeight(), 0);
+
+		updater.add(ModelUpdaterTest.createInstances(ModelUpdaterTest.UPDATE));
+		Instances extended = updater.getEncoder().getHeader();
+		Assert.assertEquals(4, extended.numClasses());
+		Assert.assertEquals(3, extended.attribute(1).numValues());
+		Assert.assertEquals(4, extended.attribute(2).numValues());
+		Assert.assertEquals(4, loaded.getCounts().numClasses());
+		Assert.assertEquals(classifier.getCounts().getTotalWeight() + ModelUpdaterTest.UPDATE.length, loaded.getCounts().getTotalWeight(),
+				0);
+
+		// the updated model is saved the same way
+		updater.save(classifierFile.getPath(), filterFile.getPath(), headerFile.getPath());
+		ModelUpdater reloaded = ModelUpdater.load(classifierFile.getPath(), filterFile.getPath(), headerFile.getPath());
+		Assert.assertEquals(4, reloaded.getEncoder().getHeader().numClasses());
+		double[] distribution = reloaded.getClassifier().distributionForInstance(reloaded.getEncoder()
+				.convert(ModelUpdaterTest.createInstances(new String[][] { { "s3", "l2", "w3" } }).get(0)));
+		Assert.assertEquals(4, distribution.length);
+	}
+}
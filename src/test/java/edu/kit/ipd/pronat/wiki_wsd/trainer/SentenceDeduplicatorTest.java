@@ -0,0 +1,40 @@
+package edu.kit.ipd.pronat.wiki_wsd.trainer;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.kit.ipd.parse.wiki_wsd.trainer.SentenceDeduplicator;
+
+/**
+ * Tests for the {@link SentenceDeduplicator}.
+ */
+public class SentenceDeduplicatorTest {
+	private static final String BOILERPLATE = "See the [[list|list]] of 12 articles. ";
+	private static final String SENTENCE = "The [[bank|bank]] was closed.";
+
+	@Test
+	public void testUnseenSentences_dedupsSentencesOfOtherLines() {
+		SentenceDeduplicator deduplicator = new SentenceDeduplicator(1000, 0.001);
+		List<String> unseen = deduplicator.unseenSentences(SentenceDeduplicatorTest.BOILERPLATE + SentenceDeduplicatorTest.SENTENCE);
+		Assert.assertEquals(Arrays.asList(SentenceDeduplicatorTest.BOILERPLATE, SentenceDeduplicatorTest.SENTENCE), unseen);
+		deduplicator.markSeen(unseen);
+
+		String other = "A [[river|river]] has two banks.";
+		Assert.assertEquals(Arrays.asList(other),
+				deduplicator.unseenSentences("see the  [[list|list]] of 40 articles. " + other));
+		Assert.assertEquals(4, deduplicator.getSentences());
+		Assert.assertEquals(1, deduplicator.getDuplicates());
+	}
+
+	@Test
+	public void testUnseenSentences_notMarkedBeforeAnnotation() {
+		SentenceDeduplicator deduplicator = new SentenceDeduplicator(1000, 0.001);
+		// the first line is not marked, e.g. because it timed out
+		deduplicator.unseenSentences(SentenceDeduplicatorTest.SENTENCE);
+		Assert.assertEquals(Arrays.asList(SentenceDeduplicatorTest.SENTENCE), deduplicator.unseenSentences(SentenceDeduplicatorTest.SENTENCE));
+		Assert.assertEquals(0, deduplicator.getDuplicates());
+	}
+}
@@ -0,0 +1,115 @@
+package edu.kit.ipd.pronat.wiki_wsd.trainer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.kit.ipd.parse.wiki_wsd.trainer.WikitextCleaner;
+import edu.kit.ipd.parse.wiki_wsd.trainer.WikitextCleaner.Category;
+
+/**
+ * Tests for the {@link WikitextCleaner}.
+ */
+public class WikitextCleanerTest {
+
+	/**
+	 * Nested templates are removed, links stay unchanged.
+	 */
+	@Test
+	public void testClean_templates() {
+		WikitextCleaner cleaner = new WikitextCleaner();
+		String cleaned = cleaner.clean("The {{lang|{{x}}|de}}[[river bank|bank]] is wet.");
+
+		Assert.assertEquals("The [[river bank|bank]] is wet.", cleaned);
+		Assert.assertEquals(17, cleaner.getRemovedChars(Category.TEMPLATE));
+	}
+
+	/**
+	 * References are removed with their content, other tags only as tags.
+	 */
+	@Test
+	public void testClean_refsAndTags() {
+		WikitextCleaner cleaner = new WikitextCleaner();
+		String cleaned = cleaner.clean("A <b>bold</b> [[mouse]]<ref name=\"a\">Source {{cite}}</ref> runs<ref name=\"b\"/>.<!-- note -->");
+
+		Assert.assertEquals("A bold [[mouse]] runs.", cleaned);
+		Assert.assertEquals(7, cleaner.getRemovedChars(Category.TAG));
+		Assert.assertTrue(cleaner.getRemovedChars(Category.REF) > 0);
+		Assert.assertEquals(13, cleaner.getRemovedChars(Category.COMMENT));
+	}
+
+	/**
+	 * Removed tags separate the words around them, whitespace is collapsed.
+	 */
+	@Test
+	public void testClean_tagsSeparateWords() {
+		WikitextCleaner cleaner = new WikitextCleaner();
+
+		Assert.assertEquals("foo bar", cleaner.clean("foo<br>bar"));
+		Assert.assertEquals("a [[bank]] b", cleaner.clean("a <br/>\t[[bank]]<span> </span>b"));
+		Assert.assertEquals(4 + 5 + 6 + 7, cleaner.getRemovedChars(Category.TAG));
+	}
+
+	/**
+	 * Tables and URLs are removed, the label of external links is kept.
+	 */
+	@Test
+	public void testClean_tablesAndUrls() {
+		WikitextCleaner cleaner = new WikitextCleaner();
+		String cleaned = cleaner.clean("See {| class=x |- | a || b |} [http://example.org the site] or https://example.org now, 1 < 2.");
+
+		Assert.assertEquals("See the site or now, 1 < 2.", cleaned);
+		Assert.assertEquals(25, cleaner.getRemovedChars(Category.TABLE));
+		Assert.assertEquals(21 + 19, cleaner.getRemovedChars(Category.URL));
+	}
+
+	/**
+	 * A table spread over several lines is removed up to its end, the lines
+	 * before and after it are kept.
+	 */
+	@Test
+	public void testStripper_multiLineTable() {
+		WikitextCleaner cleaner = new WikitextCleaner();
+		WikitextCleaner.Stripper stripper = cleaner.newStripper();
+
+		Assert.assertEquals("The [[bank]] ", stripper.clean("The [[bank]] {| class=\"wikitable\""));
+		Assert.assertTrue(stripper.isInMarkup());
+		Assert.assertEquals("", stripper.clean("|-"));
+		Assert.assertEquals("", stripper.clean("| [[river]] || {{flag|de}}"));
+		Assert.assertEquals(" is wet.", stripper.clean("|} is wet."));
+		Assert.assertFalse(stripper.isInMarkup());
+		Assert.assertEquals("A [[mouse]].", stripper.clean("A [[mouse]]."));
+		Assert.assertEquals(0, cleaner.getRemovedChars(Category.TEMPLATE));
+	}
+
+	/**
+	 * The end of a table within a template does not end the table.
+	 */
+	@Test
+	public void testStripper_templateInTable() {
+		WikitextCleaner cleaner = new WikitextCleaner();
+		WikitextCleaner.Stripper stripper = cleaner.newStripper();
+
+		Assert.assertEquals("", stripper.clean("{|"));
+		Assert.assertEquals("", stripper.clean("| {{x|}} [[bank]]"));
+		Assert.assertTrue(stripper.isInMarkup());
+		Assert.assertEquals(" [[bank]]", stripper.clean("|} [[bank]]"));
+		Assert.assertEquals(2 + 17 + 2, cleaner.getRemovedChars(Category.TABLE));
+	}
+
+	/**
+	 * Templates and comments are continued on the next line, while cleaning
+	 * single lines drops unclosed markup at the end of the line.
+	 */
+	@Test
+	public void testStripper_multiLineTemplateAndComment() {
+		WikitextCleaner cleaner = new WikitextCleaner();
+		WikitextCleaner.Stripper stripper = cleaner.newStripper();
+
+		Assert.assertEquals("A ", stripper.clean("A {{Infobox"));
+		Assert.assertEquals("", stripper.clean("| name = [[bank]]"));
+		Assert.assertEquals(" [[bank]] ", stripper.clean("}} [[bank]] <!-- a"));
+		Assert.assertEquals(" rest", stripper.clean("note --> rest"));
+		Assert.assertEquals("B ", cleaner.clean("B {{open"));
+		Assert.assertEquals("|}", cleaner.clean("|}"));
+	}
+}